@@ -0,0 +1,179 @@
+package minelab.model;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end and per phase generation time. Each phase benchmark gets a
+ * batch of {@link #BATCH} fresh dungeons, prepared before the iteration
+ * and already run up to that phase, and runs the phase once on each. Only
+ * the phase itself is measured, without per call setup overhead skewing
+ * the phases that take microseconds on small dungeons.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class GenerationBenchmark {
+	static final int ROOMS = 1;
+	static final int TUNNELS = 2;
+	static final int CONNECTED = 3;
+	static final int PRUNED = 4;
+	static final int BATCH = 16;
+
+	@State(Scope.Benchmark)
+	public static class Config {
+		@Param({"BASIC", "WIDE_PATH"})
+		public DungeonType type;
+
+		@Param({"65", "255", "1023"})
+		public int size;
+
+		@Param({"1", "42"})
+		public long seed;
+	}
+
+	public static abstract class Prepared {
+		final BasicDungeon[] dungeons = new BasicDungeon[BATCH];
+
+		void prepare(Config config, int phases) {
+			for (int i = 0; i < BATCH; i++) {
+				dungeons[i] = GenerationBenchmark.prepare(config.type, config.size, config.seed, phases);
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class BeforeRooms extends Prepared {
+		@Setup(Level.Iteration)
+		public void setup(Config config) {
+			prepare(config, 0);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class BeforeTunnels extends Prepared {
+		@Setup(Level.Iteration)
+		public void setup(Config config) {
+			prepare(config, ROOMS);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class BeforeConnect extends Prepared {
+		@Setup(Level.Iteration)
+		public void setup(Config config) {
+			prepare(config, TUNNELS);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class BeforeDeadEnds extends Prepared {
+		@Setup(Level.Iteration)
+		public void setup(Config config) {
+			prepare(config, CONNECTED);
+		}
+	}
+
+	@Benchmark
+	public Dungeon generate(Config config) {
+		BasicDungeon dungeon = config.type.create(config.size, config.size);
+		dungeon.setSeed(config.seed);
+		return dungeon.generate();
+	}
+
+	// one call per iteration, on the whole batch prepared for it
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OperationsPerInvocation(BATCH)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 10)
+	public BasicDungeon[] fillRooms(BeforeRooms state) {
+		for (BasicDungeon dungeon : state.dungeons) {
+			dungeon.fillRooms(roomsTrialLimit(dungeon));
+		}
+		return state.dungeons;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OperationsPerInvocation(BATCH)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 10)
+	public BasicDungeon[] fillTunnels(BeforeTunnels state) {
+		for (BasicDungeon dungeon : state.dungeons) {
+			dungeon.fillTunnels();
+		}
+		return state.dungeons;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OperationsPerInvocation(BATCH)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 10)
+	public BasicDungeon[] connectRegions(BeforeConnect state) {
+		for (BasicDungeon dungeon : state.dungeons) {
+			dungeon.connectRegions(extraConnectorChance(dungeon));
+		}
+		return state.dungeons;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OperationsPerInvocation(BATCH)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 10)
+	public BasicDungeon[] removeDeadEnds(BeforeDeadEnds state) {
+		for (BasicDungeon dungeon : state.dungeons) {
+			dungeon.removeDeadEnds();
+		}
+		return state.dungeons;
+	}
+
+	/**
+	 * Creates a seeded dungeon and runs the first phases of generate() on
+	 * it, in the same order and with the same parameters.
+	 */
+	static BasicDungeon prepare(DungeonType type, int size, long seed, int phases) {
+		BasicDungeon dungeon = type.create(size, size);
+		dungeon.setSeed(seed);
+
+		if (phases >= ROOMS) {
+			dungeon.fillRooms(roomsTrialLimit(dungeon));
+		}
+		if (phases >= TUNNELS) {
+			dungeon.fillTunnels();
+		}
+		if (phases >= CONNECTED) {
+			dungeon.connectRegions(extraConnectorChance(dungeon));
+		}
+		if (phases >= PRUNED) {
+			dungeon.removeDeadEnds();
+		}
+
+		return dungeon;
+	}
+
+	static int roomsTrialLimit(BasicDungeon dungeon) {
+		return dungeon.roomsTrialLimit;
+	}
+
+	static double extraConnectorChance(BasicDungeon dungeon) {
+		return dungeon.extraConnectorChance;
+	}
+}
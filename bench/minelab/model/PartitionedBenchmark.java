@@ -0,0 +1,64 @@
+package minelab.model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sector-parallel generation of one large dungeon, by pool size. The
+ * output is the same for every pool size, only the time should change.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Thread)
+public class PartitionedBenchmark {
+	@Param({"1023", "2047"})
+	public int size;
+
+	@Param({"1", "2", "4", "8"})
+	public int threads;
+
+	@Param({"42"})
+	public long seed;
+
+	private ForkJoinPool pool;
+	private PartitionedDungeon dungeon;
+
+	@Setup(Level.Trial)
+	public void createPool() {
+		pool = new ForkJoinPool(threads);
+	}
+
+	@TearDown(Level.Trial)
+	public void shutdownPool() {
+		pool.shutdown();
+	}
+
+	@Setup(Level.Invocation)
+	public void prepare() {
+		dungeon = new PartitionedDungeon(size, size);
+		dungeon.setSeed(seed);
+		dungeon.setPool(pool);
+	}
+
+	@Benchmark
+	public Dungeon generate() {
+		return dungeon.generate();
+	}
+}
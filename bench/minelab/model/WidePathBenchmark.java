@@ -0,0 +1,54 @@
+package minelab.model;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The tunnel widening pass, which only wide path dungeons have, measured
+ * on batches of dungeons like the phases in {@link GenerationBenchmark}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Thread)
+public class WidePathBenchmark {
+	@Param({"65", "255", "1023"})
+	public int size;
+
+	@Param({"1", "42"})
+	public long seed;
+
+	private final WidePathDungeon[] beforeExpand = new WidePathDungeon[GenerationBenchmark.BATCH];
+
+	@Setup(Level.Iteration)
+	public void prepare() {
+		for (int i = 0; i < beforeExpand.length; i++) {
+			beforeExpand[i] = (WidePathDungeon) GenerationBenchmark.prepare(DungeonType.WIDE_PATH, size, seed, GenerationBenchmark.PRUNED);
+		}
+	}
+
+	// one call per iteration, on the whole batch prepared for it
+	@Benchmark
+	@OperationsPerInvocation(GenerationBenchmark.BATCH)
+	public WidePathDungeon[] expandTunnels() {
+		for (WidePathDungeon dungeon : beforeExpand) {
+			dungeon.expandTunnels();
+		}
+		return beforeExpand;
+	}
+}
@@ -1,37 +1,60 @@
 package minelab.model;
 
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-
-import org.bukkit.Material;
 
+import minelab.utils.BitGrid;
+import minelab.utils.DisjointSet;
 import minelab.utils.Direction;
+import minelab.utils.IntList;
+import minelab.utils.IntMinHeap;
 import minelab.utils.IteratableRectangle;
-import minelab.utils.Vector;
+import minelab.utils.LongIntMap;
+import minelab.utils.RectangleIndex;
 
 public class BasicDungeon implements Dungeon {
-	private static double WIND_PERCENT = 0.25;
-	private static double EXTRA_CONNECTOR_CHANCE = 0.04;
-	private static int ROOMS_TRIAL_LIMIT = 300;
+	private static final double WIND_PERCENT = 0.25;
+	private static final double EXTRA_CONNECTOR_CHANCE = 0.04;
+	private static final int ROOMS_TRIAL_LIMIT = 300;
+	
+	private static final int ROOM_INDEX_CELL_SIZE = 16;
+	// smaller dungeons have no room for a room
+	public static final int MIN_SIZE = 15;
+	public static final int MIN_REGENERATED_SIZE = 15;
+	// how far around a regenerated area parts of the dungeon are followed
+	private static final int BORDER_SEARCH_MARGIN = 32;
 	
 	protected ArrayList<IteratableRectangle> rooms = new ArrayList<IteratableRectangle>(100);
-	protected Random random = new Random();
+	protected RectangleIndex roomIndex;
+	protected long seed = new Random().nextLong();
+	protected Random random = new Random(seed);
 	protected int currentRegion = -1;
-	protected Cell[][] cells;
-	//protected Map<Integer, Cell[][]> layers;
-	protected Integer[][] regionsTable;
+	protected TileGrid grid;
 	protected Logger log = Logger.getLogger("Minelab");
 	protected int width;
 	protected int height;
+	protected GenerationListener listener;
+	protected GenerationStats stats;
+	protected int connectorsFound;
+	protected IntList mazeStack = new IntList();
+	// per dungeon, subclasses set their own in the constructor
+	protected int roomsTrialLimit = ROOMS_TRIAL_LIMIT;
+	protected double extraConnectorChance = EXTRA_CONNECTOR_CHANCE;
+	private volatile NavigationGraph navigationGraph;
+	private volatile RoomGraph roomGraph;
+	// tunnels are only carved inside this area, the whole dungeon unless regenerating part of it
+	protected IteratableRectangle carveArea;
+	// off for dungeons generated as part of a bigger one
+	boolean recordHistory = true;
+	// off for sectors, whose corridors must still reach the seams
+	boolean pruneDeadEnds = true;
 	
 	public BasicDungeon(int width, int height) {
 		if (width % 2 == 0) {
@@ -46,33 +69,275 @@ public class BasicDungeon implements Dungeon {
 		
 		this.width = width;
 		this.height = height;
-		cells = new Cell[width][height];
-		regionsTable = new Integer[width][height];
-		//layers = new HashMap<Integer, Cell[][]>();
+		grid = new TileGrid(width, height);
+		roomIndex = new RectangleIndex(getBounds(), ROOM_INDEX_CELL_SIZE);
+		carveArea = getBounds();
 	}
 	
 	public Dungeon generate() {
-		(new IteratableRectangle(0, 0, width, height)).getPoints().stream().forEach(
-			(point) -> {
-				cells[point.x][point.y] = new Cell(point);
-			}
-		);
+		beginGeneration();
 
-		fillRooms(ROOMS_TRIAL_LIMIT);
-		fillTunnels();
-		connectRegions(EXTRA_CONNECTOR_CHANCE);
-		removeDeadEnds();
+		runPhase("fillRooms", () -> fillRooms(roomsTrialLimit));
+		runPhase("fillTunnels", () -> fillTunnels());
+		runPhase("connectRegions", () -> connectRegions(extraConnectorChance));
+		if (pruneDeadEnds) {
+			runPhase("removeDeadEnds", () -> removeDeadEnds());
+		}
 		
+		return endGeneration();
+	}
+
+	/**
+	 * Regenerates the rooms and tunnels of an area from the given seed and
+	 * joins them to the corridors and rooms cut off at its border, leaving
+	 * the rest of the dungeon as it is. The area is moved out to even lines
+	 * and rooms reaching over its border are kept whole. Regenerated areas
+	 * always get basic rooms and tunnels.
+	 *
+	 * Returns the part of the dungeon that may have changed: the area, and
+	 * the corridors outside it that were left as dead ends and filled.
+	 * Subclasses that can't keep this promise reject it, see {@link #copy()}.
+	 */
+	public IteratableRectangle regenerate(IteratableRectangle requested, long areaSeed) {
+		IteratableRectangle area = snapArea(requested);
+		IteratableRectangle bounds = getBounds();
+		IteratableRectangle[] filled = new IteratableRectangle[1];
+		int firstRegion = currentRegion + 1;
+		// about as many rooms as a full generation places in an area this size
+		int trials = (int) Math.max(1, (long) ROOMS_TRIAL_LIMIT * area.width * area.height / ((long) width * height));
+
+		navigationGraph = null;
+		roomGraph = null;
+		random.setSeed(areaSeed);
+		stats = new GenerationStats(getClass().getSimpleName(), area.width, area.height, areaSeed);
+		carveArea = area;
+		try {
+			runPhase("clearArea", () -> clearArea(area));
+			runPhase("labelBorder", () -> labelBorder(area));
+			runPhase("fillRooms", () -> fillRooms(area, trials));
+			runPhase("fillTunnels", () -> fillTunnels(area));
+			runPhase("connectRegions", () -> connectRegions(area.intersection(new IteratableRectangle(bounds).inflate(-1)),
+				firstRegion, EXTRA_CONNECTOR_CHANCE, true));
+			runPhase("removeDeadEnds", () -> {
+				filled[0] = removeDeadEnds(new IteratableRectangle(area).inflate(1).intersection(bounds));
+			});
+		} finally {
+			carveArea = bounds;
+		}
+
+		endGeneration();
+		return filled[0] != null ? new IteratableRectangle(area.union(filled[0])) : area;
+	}
+
+	/**
+	 * Moves the borders of the area out to even lines, where the walls
+	 * between tunnel cells run, and into the dungeon.
+	 */
+	private IteratableRectangle snapArea(IteratableRectangle requested) {
+		int minX = Math.max(0, requested.x) & ~1;
+		int minY = Math.max(0, requested.y) & ~1;
+		int maxX = Math.min(width - 1, (requested.x + requested.width) & ~1);
+		int maxY = Math.min(height - 1, (requested.y + requested.height) & ~1);
+
+		if (maxX - minX + 1 < MIN_REGENERATED_SIZE || maxY - minY + 1 < MIN_REGENERATED_SIZE) {
+			throw new IllegalArgumentException("Regenerated areas must be at least " + MIN_REGENERATED_SIZE
+				+ " tiles wide and high inside the dungeon");
+		}
+		return new IteratableRectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+	}
+
+	/**
+	 * Fills the area with stone, except for rooms reaching over its border
+	 * and their walls, and forgets the rooms inside it.
+	 */
+	private void clearArea(IteratableRectangle area) {
+		BitGrid kept = new BitGrid(area.width, area.height);
+		Set<Rectangle> removed = new HashSet<Rectangle>();
+		for (Rectangle room : roomIndex.findAll(area)) {
+			if (area.contains(room)) {
+				removed.add(room);
+				roomIndex.remove(room);
+			} else {
+				new IteratableRectangle(room).inflate(1).intersection(area)
+					.forEach((x, y) -> kept.set(x - area.x, y - area.y));
+			}
+		}
+		rooms.removeAll(removed);
+
+		area.forEach((x, y) -> {
+			if (!kept.get(x - area.x, y - area.y)) {
+				grid.setTile(x, y, TileGrid.STONE);
+				grid.setRegion(x, y, TileGrid.NO_REGION);
+			}
+		});
+	}
+
+	/**
+	 * Gives every part of the dungeon left outside the area a region of its
+	 * own on the tiles along the border and in the rooms kept inside, so
+	 * connecting the area joins all of them again. A part that was only
+	 * reachable through the area would otherwise be cut off. Parts are only
+	 * followed {@link #BORDER_SEARCH_MARGIN} tiles out, two that meet further
+	 * away get a region each and at worst an extra loop.
+	 */
+	private void labelBorder(IteratableRectangle area) {
+		IteratableRectangle near = new IteratableRectangle(area).inflate(1);
+		IteratableRectangle searched = new IteratableRectangle(
+			new IteratableRectangle(area).inflate(BORDER_SEARCH_MARGIN).intersection(getBounds()));
+		BitGrid visited = new BitGrid(searched.width, searched.height);
+		IntList stack = new IntList();
+		IntList border = new IntList();
+		for (int x = area.x; x < area.x + area.width; x++) {
+			addOpen(border, x, area.y - 1);
+			addOpen(border, x, area.y + area.height);
+		}
+		for (int y = area.y; y < area.y + area.height; y++) {
+			addOpen(border, area.x - 1, y);
+			addOpen(border, area.x + area.width, y);
+		}
+
+		for (int i = 0; i < border.size(); i++) {
+			int start = border.get(i);
+			if (visited.get(start % width - searched.x, start / width - searched.y)) {
+				continue;
+			}
+
+			markRegion();
+			visited.set(start % width - searched.x, start / width - searched.y);
+			stack.add(start);
+			while (!stack.isEmpty()) {
+				int tile = stack.removeLast();
+				int x = tile % width;
+				int y = tile / width;
+				if (near.contains(x, y)) {
+					grid.setRegion(x, y, currentRegion);
+				}
+
+				for (int dir = 0; dir < Direction.DX.length; dir++) {
+					int nx = x + Direction.DX[dir];
+					int ny = y + Direction.DY[dir];
+					if (searched.contains(nx, ny) && !visited.get(nx - searched.x, ny - searched.y)
+						&& grid.getTile(nx, ny) != TileGrid.STONE) {
+						visited.set(nx - searched.x, ny - searched.y);
+						stack.add(grid.index(nx, ny));
+					}
+				}
+			}
+		}
+	}
+
+	private void addOpen(IntList tiles, int x, int y) {
+		if (grid.contains(x, y) && grid.getTile(x, y) != TileGrid.STONE) {
+			tiles.add(grid.index(x, y));
+		}
+	}
+
+	/**
+	 * A basic dungeon with the same tiles, regions and rooms, to change
+	 * without touching this one.
+	 */
+	public BasicDungeon copy() {
+		BasicDungeon copy = new BasicDungeon(width, height);
+		copy.grid.copyFrom(grid);
+		copy.restore(rooms, currentRegion);
+		copy.setSeed(seed);
+		return copy;
+	}
+
+	/**
+	 * Takes over the rooms and region count of tiles copied into the grid.
+	 */
+	void restore(List<? extends Rectangle> rooms, int lastRegion) {
+		this.rooms.clear();
+		roomIndex = new RectangleIndex(getBounds(), ROOM_INDEX_CELL_SIZE);
+		for (Rectangle room : rooms) {
+			IteratableRectangle copy = new IteratableRectangle(room);
+			this.rooms.add(copy);
+			roomIndex.add(copy);
+		}
+		currentRegion = lastRegion;
+		navigationGraph = null;
+		roomGraph = null;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+		random.setSeed(seed);
+	}
+
+	public void setGenerationListener(GenerationListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Statistics of the last generation, null until one has finished.
+	 */
+	public GenerationStats getStats() {
+		return stats;
+	}
+
+	protected void beginGeneration() {
+		grid.clear();
+		rooms.clear();
+		roomIndex = new RectangleIndex(getBounds(), ROOM_INDEX_CELL_SIZE);
+		currentRegion = -1;
+		navigationGraph = null;
+		roomGraph = null;
+		stats = new GenerationStats(getClass().getSimpleName(), width, height, seed);
+	}
+
+	protected Dungeon endGeneration() {
+		if (recordHistory) {
+			GenerationHistory.getInstance().record(stats);
+		}
 		return this;
 	}
 
+	/**
+	 * Runs one phase of generation and records what it cost. Generation is
+	 * cancelled by interrupting the generating thread, which is checked
+	 * before every phase.
+	 */
+	protected void runPhase(String name, Runnable phase) {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new CancellationException("Generation cancelled before " + name);
+		}
+
+		if (listener != null) {
+			listener.onPhase(this, name);
+		}
+
+		long writes = grid.getWrites();
+		int regions = currentRegion;
+		int connectors = connectorsFound;
+		long allocated = GenerationStats.allocatedBytes();
+		long start = System.nanoTime();
+
+		phase.run();
+
+		long nanos = System.nanoTime() - start;
+		if (allocated >= 0) {
+			allocated = GenerationStats.allocatedBytes() - allocated;
+		}
+		stats.addPhase(new GenerationStats.PhaseStats(name, nanos, grid.getWrites() - writes,
+			currentRegion - regions, connectorsFound - connectors, allocated));
+	}
+
 	protected void fillRooms(int trialLimit) {
+		fillRooms(getBounds(), trialLimit);
+	}
+
+	protected void fillRooms(IteratableRectangle area, int trialLimit) {
 
 		for (int i = 0; i < trialLimit; i++) {
-			IteratableRectangle room = randomRectangle(5, 13);
-			boolean isOverlap = rooms.stream().anyMatch((r) -> r.intersects(room));
-			if (!isOverlap) {
+			IteratableRectangle room = randomRectangle(area, 5, 13);
+			if (!roomIndex.intersectsAny(room)) {
 				rooms.add(room);
+				roomIndex.add(room);
 				markRegion();
 				carve(room);
 			}
@@ -81,240 +346,352 @@ public class BasicDungeon implements Dungeon {
 	}
 
 	protected void fillTunnels() {
-		IteratableRectangle bounds = this.getBounds();
+		fillTunnels(getBounds());
+	}
+
+	protected void fillTunnels(IteratableRectangle area) {
 		log.info("Digging tunnels");
 		
-		for (int y = 1; y < bounds.height; y += 2) {
-			for (int x = 1; x < bounds.width; x += 2) {
-				Point pos = new Point(x, y);
-				Cell cell = getCell(pos);
-
-				if (cell.getMaterial() != Material.STONE) {
+		for (int y = area.y + 1; y < area.y + area.height; y += 2) {
+			for (int x = area.x + 1; x < area.x + area.width; x += 2) {
+				if (grid.getTile(x, y) != TileGrid.STONE) {
 					continue;
 				}
 
-				growMaze(cell);
+				growMaze(x, y);
 
 			}
 		}
 	}
 
-	protected void growMaze(Cell start) {
-		List<Cell> cells = new ArrayList<Cell>();
-		Vector lastDir = null;
+	protected void growMaze(int startX, int startY) {
+		IntList cells = mazeStack;
+		cells.clear();
+		int lastDir = -1;
 
 		markRegion();
-		carve(start);
-		cells.add(start);
+		carve(startX, startY);
+		cells.add(grid.index(startX, startY));
 
 		while (!cells.isEmpty()) {
-			Cell cell = cells.get(cells.size() - 1);
-
-			List<Vector> unmadeCells = new ArrayList<Vector>();
-			for (Vector dir : Direction.CARDINAL) {
-				if (canCarve(cell, dir)) {
-					unmadeCells.add(dir);
+			int cell = cells.last();
+			int x = cell % width;
+			int y = cell / width;
+
+			// bit i is set when CARDINAL[i] can be carved
+			int unmadeCells = 0;
+			int unmadeCount = 0;
+			for (int dir = 0; dir < Direction.DX.length; dir++) {
+				if (canCarve(x, y, dir)) {
+					unmadeCells |= 1 << dir;
+					unmadeCount++;
 				}
 			}
 
-			if (!unmadeCells.isEmpty()) {
-				Vector dir;
-				if (unmadeCells.contains(lastDir) && random.nextDouble() > WIND_PERCENT) {
+			if (unmadeCount > 0) {
+				int dir;
+				if (lastDir >= 0 && (unmadeCells & (1 << lastDir)) != 0 && random.nextDouble() > WIND_PERCENT) {
 					dir = lastDir;
 				} else {
-					int idx = random.nextInt(unmadeCells.size());
-					dir = unmadeCells.get(idx);
+					dir = Direction.nthDirection(unmadeCells, random.nextInt(unmadeCount));
 				}
 
-				Point next = dir.add(cell.getPosition());
-				carve(getCell(next));
+				carve(x + Direction.DX[dir], y + Direction.DY[dir]);
 
-				Point nextSecond = dir.multiply(2).add(cell.getPosition());
-				Cell nextSecondCell = getCell(nextSecond);
-				carve(nextSecondCell);
+				int nextX = x + Direction.DX[dir] * 2;
+				int nextY = y + Direction.DY[dir] * 2;
+				carve(nextX, nextY);
 
-				cells.add(nextSecondCell);
+				cells.add(grid.index(nextX, nextY));
 				lastDir = dir;
 			} else {
-				cells.remove(cells.size() - 1);
-				lastDir = null;
+				cells.removeLast();
+				lastDir = -1;
 			}
 		}
 	}
 
 	protected void connectRegions(double extraConnectorChance) {
-		Map<Point, Set<Integer>> connectorRegions = new HashMap<Point, Set<Integer>>();
+		connectRegions(getBounds().inflate(-1), 0, extraConnectorChance, false);
+	}
 
-		IteratableRectangle bound = this.getBounds();
-		bound.inflate(-1).getPoints().stream().forEach((pos) -> {
-			if (getCell(pos).getMaterial() != Material.STONE) {
+	/**
+	 * Joins the regions from firstRegion on through connectors in the
+	 * area. Older regions are left as they are. Connectors are kept two
+	 * tiles apart, unless openAll is set and that would leave a region
+	 * unjoined.
+	 */
+	protected void connectRegions(IteratableRectangle area, int firstRegion, double extraConnectorChance, boolean openAll) {
+		// Connector positions packed into longs, mapped to connector ids.
+		// The regions of connector i, counted from firstRegion, are
+		// regions[i * 4 ..], padded with NO_REGION, and live holds the ids
+		// not yet drawn in scan order.
+		LongIntMap connectorIds = new LongIntMap(1024);
+		IntList positions = new IntList(1024);
+		IntList regions = new IntList(4096);
+		IntList live = new IntList(1024);
+
+		area.forEach((x, y) -> {
+			if (grid.getTile(x, y) != TileGrid.STONE) {
 				return;
 			}
 
-			Set<Integer> regions = new HashSet<Integer>();
-			for (Vector dir : Direction.CARDINAL) {
-				Point regionPos = dir.add(pos);
-				Integer region = regionsTable[regionPos.x][regionPos.y];
-				if (region != null) {
+			int start = regions.size();
+			int count = 0;
+			for (int dir = 0; dir < Direction.DX.length; dir++) {
+				int region = grid.getRegion(x + Direction.DX[dir], y + Direction.DY[dir]) - firstRegion;
+				if (region >= 0 && !contains(regions, start, count, region)) {
 					regions.add(region);
+					count++;
 				}
 			}
 
-			if (regions.size() < 2) {
+			if (count < 2) {
+				regions.truncate(start);
 				return;
 			}
 
-			connectorRegions.put(pos, regions);
+			for (; count < Direction.DX.length; count++) {
+				regions.add(TileGrid.NO_REGION);
+			}
+			int id = positions.size();
+			positions.add(grid.index(x, y));
+			connectorIds.put(LongIntMap.pack(x, y), id);
+			live.add(id);
+			connectorsFound++;
 		});
-		
-		List<Point> connectors = new ArrayList<Point>();
-		Iterator<Point> connectorPointIt = connectorRegions.keySet().iterator();
-		while (connectorPointIt.hasNext()) {
-			connectors.add(connectorPointIt.next());
+
+		// Where each connector sits in live, for removing it by id.
+		int[] livePositions = new int[positions.size()];
+		for (int i = 0; i < livePositions.length; i++) {
+			livePositions[i] = i;
 		}
 
-		Map<Integer, Integer> mergedRegions = new HashMap<Integer, Integer>();
-		Set<Integer> openRegions = new HashSet<Integer>();
-		for (int i = 0; i <= currentRegion; i++) {
-			mergedRegions.put(i, i);
-			openRegions.add(i);
+		DisjointSet mergedRegions = new DisjointSet(currentRegion + 1 - firstRegion);
+		while (mergedRegions.count() > 1 && !live.isEmpty()) {
+			int id = live.get(random.nextInt(live.size()));
+			removeLive(live, livePositions, id);
+			int x = positions.get(id) % width;
+			int y = positions.get(id) / width;
+			connectorIds.remove(LongIntMap.pack(x, y));
+
+			if (!spansRegions(mergedRegions, regions, id)) {
+				// This connecter isn't needed, but connect it occasionally
+				// so that the dungeon isn't singly-connected.
+				if (random.nextDouble() < extraConnectorChance) {
+					addJunction(x, y);
+				}
+				continue;
+			}
+
+			addJunction(x, y);
+			removeConnectorsNear(connectorIds, live, livePositions, x, y);
+			mergeRegions(mergedRegions, regions, id);
 		}
 
-		while (openRegions.size() > 1) {
-			int randBound = connectors.size();
-			if (randBound == 0) {
-				break;
+		// A connector dropped for being next to a junction may have been the
+		// only one into a region, those are opened after all.
+		for (int id = 0; openAll && id < positions.size() && mergedRegions.count() > 1; id++) {
+			if (spansRegions(mergedRegions, regions, id)) {
+				addJunction(positions.get(id) % width, positions.get(id) / width);
+				mergeRegions(mergedRegions, regions, id);
 			}
-			Point connector = connectors.get(random.nextInt(randBound));
+		}
 
-			addJunction(connector);
+		// Everything is connected now, so the remaining connectors are all
+		// redundant.
+		for (int i = 0; i < live.size(); i++) {
+			if (random.nextDouble() < extraConnectorChance) {
+				int position = positions.get(live.get(i));
+				addJunction(position % width, position / width);
+			}
+		}
+	}
 
-			// usually 2 regions
-			List<Integer> merged = connectorRegions.get(connector).stream().map(
-				region -> mergedRegions.get(region)
-			).collect(Collectors.toList());
+	private static boolean contains(IntList values, int start, int length, int value) {
+		for (int i = start; i < start + length; i++) {
+			if (values.get(i) == value) {
+				return true;
+			}
+		}
+		return false;
+	}
 
-			Integer dest = merged.remove(0);
+	private static void mergeRegions(DisjointSet mergedRegions, IntList regions, int id) {
+		// usually 2 regions
+		int first = regions.get(id * Direction.DX.length);
+		for (int i = 1; i < Direction.DX.length; i++) {
+			int region = regions.get(id * Direction.DX.length + i);
+			if (region != TileGrid.NO_REGION) {
+				mergedRegions.union(first, region);
+			}
+		}
+	}
 
-			for (int i = 0; i <= currentRegion; i++) {
-				if (merged.contains(mergedRegions.get(i))) {
-					mergedRegions.put(i, dest);
-				}
+	private static boolean spansRegions(DisjointSet mergedRegions, IntList regions, int id) {
+		int offset = id * Direction.DX.length;
+		int root = mergedRegions.find(regions.get(offset));
+		for (int i = 1; i < Direction.DX.length; i++) {
+			int region = regions.get(offset + i);
+			if (region != TileGrid.NO_REGION && mergedRegions.find(region) != root) {
+				return true;
 			}
+		}
+		return false;
+	}
 
-			openRegions.removeAll(merged);
-			
-			for (Iterator<Point> connectorIt = connectors.iterator(); connectorIt.hasNext();) {
-				Point pos = connectorIt.next();
-				if (connector.distance(pos) < 3) {
-					connectorIt.remove();
-					continue;
+	/**
+	 * Drops the connectors too close to an opened junction to become
+	 * another one. Everything within a distance of 3 lies in the
+	 * surrounding 5x5 square, so only those 25 keys are probed.
+	 */
+	private static void removeConnectorsNear(LongIntMap connectorIds, IntList live, int[] livePositions, int jx, int jy) {
+		for (int y = jy - 2; y <= jy + 2; y++) {
+			for (int x = jx - 2; x <= jx + 2; x++) {
+				int id = connectorIds.remove(LongIntMap.pack(x, y));
+				if (id != LongIntMap.MISSING) {
+					removeLive(live, livePositions, id);
 				}
+			}
+		}
+	}
 
-				// If the connector no long spans different regions, we don't
-				// need it.
-				Iterator<Integer> connectorRegionIt = connectorRegions.get(pos).iterator();
-				Set<Integer> toBeRemovedRegions = new HashSet<Integer>();
-				while (connectorRegionIt.hasNext()) {
-					Integer connectorRegion = connectorRegionIt.next();
-					toBeRemovedRegions.add(mergedRegions.get(connectorRegion));
+	private static void removeLive(IntList live, int[] livePositions, int id) {
+		int index = livePositions[id];
+		int last = live.removeLast();
+		if (last != id) {
+			live.set(index, last);
+			livePositions[last] = index;
+		}
+	}
+	
+	protected void removeDeadEnds() {
+		removeDeadEnds(getBounds());
+	}
+
+	/**
+	 * Fills the dead ends found in the area, and those that filling them
+	 * leads to, wherever they are. Returns the bounds of the filled tiles,
+	 * null if there were none.
+	 */
+	protected IteratableRectangle removeDeadEnds(IteratableRectangle area) {
+		log.info("Removing dead ends");
+
+		// Dead ends are filled in the same x-major order as a full scan
+		// would find them, so tiles are keyed by x * height + y and the
+		// smallest key is always filled first. Filling a tile can only turn
+		// its neighbours into dead ends, so only those are queued again. A
+		// tile queued twice is stone by its second turn and skipped.
+		IntMinHeap deadEnds = new IntMinHeap(width + height);
+		int minX = width;
+		int minY = height;
+		int maxX = -1;
+		int maxY = -1;
+
+		for (int x = area.x; x < area.x + area.width; x++) {
+			for (int y = area.y; y < area.y + area.height; y++) {
+				if (isDeadEnd(x, y)) {
+					deadEnds.push(x * height + y);
 				}
+			}
+		}
 
-				if (toBeRemovedRegions.size() <= 1) {
-					// This connecter isn't needed, but connect it occasionally
-					// so that the
-					// dungeon isn't singly-connected.
-					if (random.nextDouble() < extraConnectorChance) {
-						addJunction(pos);
-					}
-					
-					connectorIt.remove();
+		while (!deadEnds.isEmpty()) {
+			int key = deadEnds.pop();
+			int x = key / height;
+			int y = key % height;
+
+			if (!isDeadEnd(x, y)) {
+				continue;
+			}
+
+			grid.setTile(x, y, TileGrid.STONE);
+			onDeadEndRemoved(x, y);
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+
+			for (int dir = 0; dir < Direction.DX.length; dir++) {
+				int nx = x + Direction.DX[dir];
+				int ny = y + Direction.DY[dir];
+				if (grid.contains(nx, ny) && isDeadEnd(nx, ny)) {
+					deadEnds.push(nx * height + ny);
 				}
 			}
+		}
+
+		return maxX < 0 ? null : new IteratableRectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+	}
 
+	protected boolean isDeadEnd(int x, int y) {
+		if (grid.getTile(x, y) == TileGrid.STONE) {
+			return false;
 		}
+
+		// If it only has one exit, it's a dead end.
+		int exits = 0;
+		for (int dir = 0; dir < Direction.DX.length; dir++) {
+			int nx = x + Direction.DX[dir];
+			int ny = y + Direction.DY[dir];
+			if (grid.contains(nx, ny) && grid.getTile(nx, ny) != TileGrid.STONE) {
+				exits++;
+			}
+		}
+
+		return exits == 1;
 	}
-	
-	protected void removeDeadEnds() {
-	    boolean done = false;
-	
-	    log.info("Removing dead ends");
-	    while (!done) {
-	    	IteratableRectangle bounds = this.getBounds();
-	    	done = !bounds.getPoints().stream().anyMatch(
-	    		(pos) -> {
-	    			Cell currentCell = getCell(pos); 
-	    			if (currentCell.getMaterial() == Material.STONE) {
-	    				return false;
-	    			}
-	    			// If it only has one exit, it's a dead end.
-	    	        int exits = 0;
-	    	        for (Vector dir : Direction.CARDINAL) {
-	    	        	Cell suroundCell = getCell(dir.add(pos));
-	    	        	if (suroundCell.getMaterial() != Material.STONE) {
-	    				  exits++;
-	    	        	}
-	    	        }
-
-	    	        if (exits != 1) {
-	    	        	return false;
-	    	        }
-
-	    	        currentCell.setMaterial(Material.STONE);
-	    	        return true; 
-	    		} 
-	    	);
-	    }
-
-	}
-
-	protected void addJunction(Point pos) {
+
+	protected void onDeadEndRemoved(int x, int y) {
+	}
+
+	protected void addJunction(int x, int y) {
 		double rate = random.nextDouble(); 
 		if (rate < 0.95) {
-			getCell(pos).setMaterial(Material.AIR);
+			grid.setTile(x, y, TileGrid.AIR);
 		} else {
-			getCell(pos).setMaterial(Material.DARK_OAK_DOOR);
+			grid.setTile(x, y, TileGrid.DOOR);
 		}
 		
 	}
 
 	protected void carve(IteratableRectangle rect) {
-		rect.getPoints().stream().forEach((pos) -> {
-			carve(getCell(pos));
-		});
+		rect.forEach((x, y) -> carve(x, y));
 	}
 
-	protected void carve(Cell cell) {
-		cell.setMaterial(Material.AIR);
-		Point pos = cell.getPosition();
-		regionsTable[pos.x][pos.y] = currentRegion;
+	protected void carve(int x, int y) {
+		grid.carve(x, y, currentRegion);
 	}
 
-	protected boolean canCarve(Cell cell, Vector direction) {
-		Vector twoSteps = direction.multiply(2);
-		Vector threeSteps = direction.multiply(3);
-		Point pos = cell.getPosition();
-
+	protected boolean canCarve(int x, int y, int direction) {
 		// check if in bounds
-		if (!getBounds().contains(threeSteps.add(pos))) {
+		if (!carveArea.contains(x + Direction.DX[direction] * 3, y + Direction.DY[direction] * 3)) {
 			return false;
 		}
 
-		Point nextPos = twoSteps.add(pos);
-		Cell nextCell = getCell(nextPos.x, nextPos.y);
+		int nextX = x + Direction.DX[direction] * 2;
+		int nextY = y + Direction.DY[direction] * 2;
 
-		return nextCell.getMaterial() == Material.STONE;
+		return grid.getTile(nextX, nextY) == TileGrid.STONE;
 	}
 
 	protected IteratableRectangle randomRectangle(int min, int max) {
+		return randomRectangle(getBounds(), min, max);
+	}
+
+	/**
+	 * A room of odd size on odd coordinates, inside the walls of an area
+	 * that starts on even coordinates.
+	 */
+	protected IteratableRectangle randomRectangle(IteratableRectangle area, int min, int max) {
 
 		int width = random.nextInt(max - min) + min;
 		int height = random.nextInt(max - min) + min;
 
 		width = width % 2 == 0 ? width + 1 : width;
 		height = height % 2 == 0 ? height + 1 : height;
-		int x = (random.nextInt(this.getWidth() - width) / 2) * 2 + 1;
-		int y = (random.nextInt(this.getHeight() - height) / 2) * 2 + 1;
+		int x = area.x + (random.nextInt(area.width - width) / 2) * 2 + 1;
+		int y = area.y + (random.nextInt(area.height - height) / 2) * 2 + 1;
 		return new IteratableRectangle(x, y, width, height);
 	}
 
@@ -322,16 +699,47 @@ public class BasicDungeon implements Dungeon {
 		currentRegion++;
 	}
 
-	public Cell[][] getCells() {
-		return cells;
+	public TileGrid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * Walking graph of the generated dungeon, built on first use.
+	 */
+	public NavigationGraph getNavigationGraph() {
+		NavigationGraph graph = navigationGraph;
+		if (graph == null) {
+			graph = navigationGraph = NavigationGraph.build(grid, rooms);
+		}
+		return graph;
+	}
+
+	/**
+	 * Rooms of the generated dungeon and how they link up, built on first
+	 * use.
+	 */
+	public RoomGraph getRoomGraph() {
+		RoomGraph graph = roomGraph;
+		if (graph == null) {
+			graph = roomGraph = RoomGraph.build(grid, rooms);
+		}
+		return graph;
+	}
+
+	public List<IteratableRectangle> getRooms() {
+		return rooms;
+	}
+
+	public byte getTile(int x, int y) {
+		return grid.getTile(x, y);
 	}
 
 	public Cell getCell(int x, int y) {
-		return cells[x][y];
+		return new Cell(grid, x, y);
 	}
 
 	public Cell getCell(Point pos) {
-		return cells[pos.x][pos.y];
+		return new Cell(grid, pos.x, pos.y);
 	}
 
 	public int getWidth() {
@@ -345,42 +753,4 @@ public class BasicDungeon implements Dungeon {
 	public IteratableRectangle getBounds() {
 		return new IteratableRectangle(0, 0, width, height);
 	}
-	
-	protected List<Cell> getSurroundingCells(Cell cell) {
-		List<Cell> cells = new ArrayList<Cell>();
-		Point pos = cell.getPosition();
-		pos.translate(1, 0); // east
-		cells.add(getCell(pos));
-		pos.translate(0, -1); // south east
-		cells.add(getCell(pos));
-		pos.translate(-1, 0); // south
-		cells.add(getCell(pos));
-		pos.translate(-1, 0); // south west
-		cells.add(getCell(pos));
-		pos.translate(0, 1); // west
-		cells.add(getCell(pos));
-		pos.translate(0, 1); // north west
-		cells.add(getCell(pos));
-		pos.translate(1, 0); // north
-		cells.add(getCell(pos));
-		pos.translate(1, 0); // north east
-		cells.add(getCell(pos));
-		
-		return cells;
-	}
-	
-	protected List<Cell> getCardinalCells(Cell cell) {
-		List<Cell> cells = new ArrayList<Cell>();
-		Point pos = cell.getPosition();
-		pos.translate(1, 0); // east
-		cells.add(getCell(pos));
-		pos.translate(-1, -1); // south
-		cells.add(getCell(pos));
-		pos.translate(-1, 1); // west
-		cells.add(getCell(pos));
-		pos.translate(1, 1); // north
-		cells.add(getCell(pos));
-		
-		return cells;
-	}
 }
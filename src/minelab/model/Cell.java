@@ -4,31 +4,60 @@ import java.awt.Point;
 
 import org.bukkit.Material;
 
+/**
+ * A view of a single tile of a {@link TileGrid}. Cells hold no state of their
+ * own, so they can be created on demand and thrown away.
+ */
 public class Cell {
-	private Material material = Material.STONE;
-	private Point position;
-	
-	public Cell(int x, int y) {
-		this(new Point(x, y));
-	}
-	
-	public Cell(Point pos) {
-		this.position = pos;
+	private final TileGrid grid;
+	private final int x;
+	private final int y;
+
+	public Cell(TileGrid grid, int x, int y) {
+		this.grid = grid;
+		this.x = x;
+		this.y = y;
 	}
-	
+
 	public Material getMaterial() {
-		return material;
+		return grid.getMaterial(x, y);
 	}
-	
+
 	public void setMaterial(Material material) {
-		this.material = material;
+		grid.setMaterial(x, y, material);
+	}
+
+	public byte getTile() {
+		return grid.getTile(x, y);
+	}
+
+	public void setTile(byte tile) {
+		grid.setTile(x, y, tile);
 	}
-	
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
+	}
+
 	public Point getPosition() {
-		return (Point) position.clone();
+		return new Point(x, y);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Cell)) {
+			return false;
+		}
+		Cell other = (Cell) obj;
+		return grid == other.grid && x == other.x && y == other.y;
 	}
-	
-	public void setLocation(Point location) {
-		this.position = location;
+
+	@Override
+	public int hashCode() {
+		return grid.index(x, y);
 	}
 }
@@ -0,0 +1,97 @@
+package minelab.model;
+
+import java.util.Arrays;
+
+import minelab.utils.Direction;
+import minelab.utils.IntList;
+
+/**
+ * Walking distance from every open tile to the nearest of a set of target
+ * tiles, with the first step to take from each tile. Built once with a
+ * breadth first search from all targets at the same time, so following the
+ * steps from anywhere is a shortest path and costs one lookup per move.
+ */
+public class DistanceField {
+	public static final int UNREACHABLE = -1;
+
+	private final int width;
+	private final int height;
+	private final int[] distances;
+	// direction index toward the nearest target, -1 on targets and stone
+	private final byte[] steps;
+
+	private DistanceField(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.distances = new int[width * height];
+		this.steps = new byte[width * height];
+		Arrays.fill(distances, UNREACHABLE);
+		Arrays.fill(steps, (byte) -1);
+	}
+
+	/**
+	 * Targets are tile indices of the grid, stone targets are ignored.
+	 */
+	static DistanceField compute(TileGrid grid, IntList targets) {
+		int width = grid.getWidth();
+		int height = grid.getHeight();
+		DistanceField field = new DistanceField(width, height);
+		int[] queue = new int[width * height];
+		int head = 0;
+		int tail = 0;
+
+		for (int i = 0; i < targets.size(); i++) {
+			int index = targets.get(i);
+			if (grid.getTile(index) != TileGrid.STONE && field.distances[index] == UNREACHABLE) {
+				field.distances[index] = 0;
+				queue[tail++] = index;
+			}
+		}
+
+		while (head < tail) {
+			int index = queue[head++];
+			int x = index % width;
+			int y = index / width;
+			for (int dir = 0; dir < Direction.DX.length; dir++) {
+				if (!Direction.inBounds(width, height, x, y, dir, 1)) {
+					continue;
+				}
+
+				int next = grid.index(x + Direction.DX[dir], y + Direction.DY[dir]);
+				if (field.distances[next] != UNREACHABLE || grid.getTile(next) == TileGrid.STONE) {
+					continue;
+				}
+
+				field.distances[next] = field.distances[index] + 1;
+				// step back the way the search came
+				field.steps[next] = (byte) ((dir + 2) % Direction.DX.length);
+				queue[tail++] = next;
+			}
+		}
+		return field;
+	}
+
+	/**
+	 * Steps to the nearest target, {@link #UNREACHABLE} from stone or from
+	 * tiles with no way to a target.
+	 */
+	public int getDistance(int x, int y) {
+		return distances[y * width + x];
+	}
+
+	/**
+	 * Direction index (see {@link Direction#DX}) of the next tile on the way
+	 * to the nearest target, or -1 on a target or an unreachable tile.
+	 */
+	public int getNextStep(int x, int y) {
+		return steps[y * width + x];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+}
@@ -4,6 +4,8 @@ import minelab.utils.IteratableRectangle;
 
 public interface Dungeon {
 	public Dungeon generate();
-	public Cell[][] getCells();
+	public byte getTile(int x, int y);
+	public Cell getCell(int x, int y);
 	public IteratableRectangle getBounds();
+	public void setGenerationListener(GenerationListener listener);
 }
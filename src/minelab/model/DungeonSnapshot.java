@@ -0,0 +1,154 @@
+package minelab.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import minelab.utils.IteratableRectangle;
+
+/**
+ * Binary snapshot of a generated dungeon: a header, the rooms, then the
+ * tile codes and region ids row by row, all big endian.
+ *
+ * <pre>
+ * int   magic "MLAB"
+ * short version
+ * int   width
+ * int   height
+ * long  seed
+ * UTF   type
+ * int   room count                    since version 2
+ * int   x, y, width, height per room  since version 2
+ * byte  tiles[width * height]
+ * int   regions[width * height]       since version 2
+ * </pre>
+ *
+ * Snapshots are read by mapping the file, see {@link #map(File)}, so
+ * loading one costs no generation and no copy of the tiles.
+ */
+public class DungeonSnapshot {
+	public static final int MAGIC = 0x4d4c4142;
+	public static final short VERSION = 2;
+
+	/**
+	 * Rooms and regions are only known for basic dungeons, other dungeons
+	 * are written without rooms and with every region NO_REGION.
+	 */
+	public static void write(Dungeon dungeon, long seed, OutputStream stream) throws IOException {
+		IteratableRectangle bounds = dungeon.getBounds();
+		DataOutputStream out = new DataOutputStream(stream);
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeInt(bounds.width);
+		out.writeInt(bounds.height);
+		out.writeLong(seed);
+		out.writeUTF(dungeon.getClass().getSimpleName());
+
+		List<IteratableRectangle> rooms = dungeon instanceof BasicDungeon
+			? ((BasicDungeon) dungeon).getRooms() : Collections.<IteratableRectangle>emptyList();
+		out.writeInt(rooms.size());
+		for (IteratableRectangle room : rooms) {
+			out.writeInt(room.x);
+			out.writeInt(room.y);
+			out.writeInt(room.width);
+			out.writeInt(room.height);
+		}
+
+		byte[] row = new byte[bounds.width];
+		for (int y = 0; y < bounds.height; y++) {
+			for (int x = 0; x < bounds.width; x++) {
+				row[x] = dungeon.getTile(bounds.x + x, bounds.y + y);
+			}
+			out.write(row);
+		}
+
+		TileGrid grid = dungeon instanceof BasicDungeon ? ((BasicDungeon) dungeon).getGrid() : null;
+		for (int y = 0; y < bounds.height; y++) {
+			for (int x = 0; x < bounds.width; x++) {
+				out.writeInt(grid != null ? grid.getRegion(x, y) : TileGrid.NO_REGION);
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes the snapshot next to the file first and moves it in place,
+	 * so a crash never leaves a half written snapshot behind.
+	 */
+	public static void save(Dungeon dungeon, long seed, File file) throws IOException {
+		Path target = file.toPath();
+		Path partial = target.resolveSibling(file.getName() + ".partial");
+		try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(partial))) {
+			write(dungeon, seed, stream);
+		}
+		Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Maps a snapshot of any known version. The tiles are read straight
+	 * from the mapping, which stays valid after the file is replaced.
+	 */
+	public static MappedDungeon map(File file) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large to map");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException(file + " is not a dungeon snapshot");
+			}
+			short version = buffer.getShort();
+			if (version < 1 || version > VERSION) {
+				throw new IOException(file + " has unknown snapshot version " + version);
+			}
+
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			long seed = buffer.getLong();
+			String type = readUTF(buffer);
+
+			List<IteratableRectangle> rooms = new ArrayList<IteratableRectangle>();
+			if (version >= 2) {
+				int count = buffer.getInt();
+				for (int i = 0; i < count; i++) {
+					rooms.add(new IteratableRectangle(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt()));
+				}
+			}
+
+			int tiles = buffer.position();
+			int regions = version >= 2 ? tiles + width * height : -1;
+			long size = (long) tiles + (long) width * height * (version >= 2 ? 5 : 1);
+			if (width <= 0 || height <= 0 || size > buffer.capacity()) {
+				throw new IOException(file + " is truncated");
+			}
+			return new MappedDungeon(buffer, width, height, seed, type, rooms, tiles, regions);
+		} catch (RuntimeException e) {
+			// a header running past the end of the file
+			throw new IOException(file + " is not a valid dungeon snapshot", e);
+		}
+	}
+
+	private static String readUTF(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xffff];
+		buffer.get(bytes);
+		// type names are plain class names, modified UTF-8 only differs outside ASCII
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
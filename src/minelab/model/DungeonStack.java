@@ -0,0 +1,207 @@
+package minelab.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import minelab.utils.BitGrid;
+import minelab.utils.Direction;
+import minelab.utils.IntList;
+import minelab.utils.IteratableRectangle;
+
+/**
+ * Several dungeon floors of the same size stacked on top of each other and
+ * joined by ladders. Floors don't depend on each other, so they are
+ * generated concurrently on a fork-join pool, each with its own seed.
+ *
+ * As a plain {@link Dungeon} the stack shows its ground floor.
+ */
+public class DungeonStack implements Dungeon {
+	// one ladder per this many tiles between two floors, at least one
+	static int TILES_PER_LADDER = 1024;
+
+	private final DungeonType type;
+	private final int width;
+	private final int height;
+	private final BasicDungeon[] floors;
+	// wall direction + 1 of the ladder going up from (x, y) on each floor, 0 if none
+	private final byte[][] ladders;
+	private int ladderCount;
+	private long seed = new Random().nextLong();
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	private GenerationListener listener;
+
+	public DungeonStack(DungeonType type, int width, int height, int floorCount) {
+		if (floorCount < 1) {
+			throw new IllegalArgumentException("A dungeon stack needs at least one floor");
+		}
+
+		this.type = type;
+		this.floors = new BasicDungeon[floorCount];
+		this.ladders = new byte[floorCount - 1][];
+		for (int i = 0; i < floorCount; i++) {
+			floors[i] = type.create(width, height);
+		}
+		// floors pad even sizes to odd, ladders are indexed like their grids
+		this.width = floors[0].getWidth();
+		this.height = floors[0].getHeight();
+	}
+
+	public Dungeon generate() {
+		Thread caller = Thread.currentThread();
+		Random random = new Random(seed);
+		List<ForkJoinTask<Dungeon>> tasks = new ArrayList<ForkJoinTask<Dungeon>>();
+
+		for (int i = 0; i < floors.length; i++) {
+			BasicDungeon floor = floors[i];
+			String name = "floor " + (i + 1) + "/" + floors.length + " ";
+			floor.setSeed(random.nextLong());
+			floor.setGenerationListener((d, phase) -> {
+				// floors run on pool threads, cancellation is seen through the caller
+				if (caller.isInterrupted()) {
+					throw new CancellationException("Dungeon generation cancelled");
+				}
+				if (listener != null) {
+					listener.onPhase(this, name + phase);
+				}
+			});
+			tasks.add(pool.submit(() -> floor.generate()));
+		}
+
+		for (ForkJoinTask<Dungeon> task : tasks) {
+			task.join();
+		}
+
+		placeLadders(random);
+		return this;
+	}
+
+	/**
+	 * Joins every pair of neighbouring floors with ladders. A ladder stands
+	 * where both floors are open and has a wall behind it on both floors,
+	 * so it can be climbed from the lower floor and stepped off on the
+	 * upper one.
+	 */
+	private void placeLadders(Random random) {
+		ladderCount = 0;
+		BitGrid taken = new BitGrid(width, height);
+
+		for (int floor = 0; floor < ladders.length; floor++) {
+			TileGrid lower = floors[floor].getGrid();
+			TileGrid upper = floors[floor + 1].getGrid();
+			IntList candidates = new IntList();
+
+			for (int y = 1; y < height - 1; y++) {
+				for (int x = 1; x < width - 1; x++) {
+					if (taken.get(x, y) || lower.getTile(x, y) != TileGrid.AIR || upper.getTile(x, y) != TileGrid.AIR) {
+						continue;
+					}
+					if (wallDirection(lower, upper, x, y) >= 0) {
+						candidates.add(lower.index(x, y));
+					}
+				}
+			}
+
+			// the ladders of this floor must not collide with the ones coming up from below
+			taken.clear();
+			ladders[floor] = new byte[width * height];
+			int count = Math.min(candidates.size(), Math.max(1, width * height / TILES_PER_LADDER));
+			for (int i = 0; i < count; i++) {
+				int pick = i + random.nextInt(candidates.size() - i);
+				int index = candidates.get(pick);
+				candidates.set(pick, candidates.get(i));
+				candidates.set(i, index);
+
+				int x = index % width;
+				int y = index / width;
+				ladders[floor][index] = (byte) (wallDirection(lower, upper, x, y) + 1);
+				taken.set(x, y);
+				ladderCount++;
+			}
+		}
+	}
+
+	private static int wallDirection(TileGrid lower, TileGrid upper, int x, int y) {
+		for (int dir = 0; dir < Direction.DX.length; dir++) {
+			int wx = x + Direction.DX[dir];
+			int wy = y + Direction.DY[dir];
+			if (lower.getTile(wx, wy) == TileGrid.STONE && upper.getTile(wx, wy) == TileGrid.STONE) {
+				return dir;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Direction index (see {@link Direction#DX}) of the wall the ladder going
+	 * up from (x, y) on the given floor leans on, or -1 if there is none.
+	 */
+	public int getLadder(int floor, int x, int y) {
+		if (floor < 0 || floor >= ladders.length || ladders[floor] == null) {
+			return -1;
+		}
+		return ladders[floor][y * width + x] - 1;
+	}
+
+	public int getLadderCount() {
+		return ladderCount;
+	}
+
+	public int getFloorCount() {
+		return floors.length;
+	}
+
+	public BasicDungeon getFloor(int floor) {
+		return floors[floor];
+	}
+
+	/**
+	 * Field toward the nearest ladder of a floor, the ones going up from it
+	 * and the ones coming up from the floor below.
+	 */
+	public DistanceField getExitField(int floor) {
+		IntList exits = new IntList();
+		for (int index = 0; index < width * height; index++) {
+			if ((floor < ladders.length && ladders[floor][index] != 0)
+				|| (floor > 0 && ladders[floor - 1][index] != 0)) {
+				exits.add(index);
+			}
+		}
+		return floors[floor].getNavigationGraph().getField(exits);
+	}
+
+	public DungeonType getType() {
+		return type;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public void setGenerationListener(GenerationListener listener) {
+		this.listener = listener;
+	}
+
+	public byte getTile(int x, int y) {
+		return floors[0].getTile(x, y);
+	}
+
+	public Cell getCell(int x, int y) {
+		return floors[0].getCell(x, y);
+	}
+
+	public IteratableRectangle getBounds() {
+		return new IteratableRectangle(0, 0, width, height);
+	}
+}
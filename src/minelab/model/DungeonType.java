@@ -0,0 +1,12 @@
+package minelab.model;
+
+public enum DungeonType {
+	BASIC, WIDE_PATH;
+	
+	public BasicDungeon create(int width, int height) {
+		switch (this) {
+			case WIDE_PATH: return new WidePathDungeon(width, height);
+			default: return new BasicDungeon(width, height);
+		}
+	}
+}
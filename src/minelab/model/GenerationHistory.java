@@ -0,0 +1,55 @@
+package minelab.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ring buffer of the most recent generation runs. Every dungeon records
+ * into the shared instance when it finishes generating.
+ */
+public class GenerationHistory {
+	public static final int CAPACITY = 32;
+
+	private static final GenerationHistory INSTANCE = new GenerationHistory(CAPACITY);
+
+	private final GenerationStats[] runs;
+	private int next;
+	private long totalRuns;
+
+	public GenerationHistory(int capacity) {
+		runs = new GenerationStats[capacity];
+	}
+
+	public static GenerationHistory getInstance() {
+		return INSTANCE;
+	}
+
+	public synchronized void record(GenerationStats stats) {
+		runs[next] = stats;
+		next = (next + 1) % runs.length;
+		totalRuns++;
+	}
+
+	/**
+	 * The recorded runs, newest first.
+	 */
+	public synchronized List<GenerationStats> getRecent() {
+		List<GenerationStats> recent = new ArrayList<GenerationStats>(runs.length);
+		for (int i = 1; i <= runs.length; i++) {
+			GenerationStats stats = runs[(next - i + runs.length) % runs.length];
+			if (stats == null) {
+				break;
+			}
+			recent.add(stats);
+		}
+		return recent;
+	}
+
+	public synchronized GenerationStats getLatest() {
+		return runs[(next - 1 + runs.length) % runs.length];
+	}
+
+	public synchronized long getTotalRuns() {
+		return totalRuns;
+	}
+}
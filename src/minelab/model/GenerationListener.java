@@ -0,0 +1,9 @@
+package minelab.model;
+
+/**
+ * Receives progress from a dungeon while it generates. Callbacks run on the
+ * generating thread.
+ */
+public interface GenerationListener {
+	public void onPhase(Dungeon dungeon, String phase);
+}
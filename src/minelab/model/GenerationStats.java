@@ -0,0 +1,143 @@
+package minelab.model;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Timings and counters of one run of {@link Dungeon#generate()}, one entry
+ * per phase.
+ */
+public class GenerationStats {
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private final String type;
+	private final int width;
+	private final int height;
+	private final long seed;
+	private final long startedAt = System.currentTimeMillis();
+	private final List<PhaseStats> phases = new ArrayList<PhaseStats>(6);
+
+	public GenerationStats(String type, int width, int height, long seed) {
+		this.type = type;
+		this.width = width;
+		this.height = height;
+		this.seed = seed;
+	}
+
+	public void addPhase(PhaseStats phase) {
+		phases.add(phase);
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public long getStartedAt() {
+		return startedAt;
+	}
+
+	public List<PhaseStats> getPhases() {
+		return Collections.unmodifiableList(phases);
+	}
+
+	public long getTotalNanos() {
+		long total = 0;
+		for (PhaseStats phase : phases) {
+			total += phase.getNanos();
+		}
+		return total;
+	}
+
+	public long getTotalBytesAllocated() {
+		long total = 0;
+		for (PhaseStats phase : phases) {
+			if (phase.getBytesAllocated() < 0) {
+				return -1;
+			}
+			total += phase.getBytesAllocated();
+		}
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + width + "x" + height + " seed " + seed + " in " + getTotalNanos() / 1000000 + "ms";
+	}
+
+	/**
+	 * Bytes allocated so far by the current thread, or -1 if the JVM can't
+	 * tell.
+	 */
+	public static long allocatedBytes() {
+		if (THREADS instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	public static class PhaseStats {
+		private final String name;
+		private final long nanos;
+		private final long tilesTouched;
+		private final int regionsCreated;
+		private final int connectorsCreated;
+		private final long bytesAllocated;
+
+		public PhaseStats(String name, long nanos, long tilesTouched, int regionsCreated, int connectorsCreated, long bytesAllocated) {
+			this.name = name;
+			this.nanos = nanos;
+			this.tilesTouched = tilesTouched;
+			this.regionsCreated = regionsCreated;
+			this.connectorsCreated = connectorsCreated;
+			this.bytesAllocated = bytesAllocated;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		public long getTilesTouched() {
+			return tilesTouched;
+		}
+
+		public int getRegionsCreated() {
+			return regionsCreated;
+		}
+
+		public int getConnectorsCreated() {
+			return connectorsCreated;
+		}
+
+		/**
+		 * Bytes allocated during the phase, -1 if not supported by the JVM.
+		 */
+		public long getBytesAllocated() {
+			return bytesAllocated;
+		}
+
+		@Override
+		public String toString() {
+			return name + ": " + nanos / 1000 + "us, " + tilesTouched + " tiles, " + regionsCreated + " regions, "
+				+ connectorsCreated + " connectors, " + (bytesAllocated < 0 ? "?" : bytesAllocated / 1024 + "KB");
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package minelab.model;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import minelab.utils.IteratableRectangle;
+
+/**
+ * A dungeon loaded from a snapshot, already generated. Tiles and regions
+ * are read from the mapped file on every access; nothing is copied unless
+ * a {@link Cell} is asked for.
+ */
+public class MappedDungeon implements Dungeon {
+	private final ByteBuffer buffer;
+	private final int width;
+	private final int height;
+	private final long seed;
+	private final String type;
+	private final List<IteratableRectangle> rooms;
+	private final int tileOffset;
+	// -1 in snapshots written without regions
+	private final int regionOffset;
+	private volatile TileGrid grid;
+
+	MappedDungeon(ByteBuffer buffer, int width, int height, long seed, String type,
+			List<IteratableRectangle> rooms, int tileOffset, int regionOffset) {
+		this.buffer = buffer;
+		this.width = width;
+		this.height = height;
+		this.seed = seed;
+		this.type = type;
+		this.rooms = Collections.unmodifiableList(rooms);
+		this.tileOffset = tileOffset;
+		this.regionOffset = regionOffset;
+	}
+
+	/**
+	 * Snapshots are generated already.
+	 */
+	public Dungeon generate() {
+		return this;
+	}
+
+	public byte getTile(int x, int y) {
+		return buffer.get(tileOffset + y * width + x);
+	}
+
+	public int getRegion(int x, int y) {
+		if (regionOffset < 0) {
+			return TileGrid.NO_REGION;
+		}
+		return buffer.getInt(regionOffset + (y * width + x) * 4);
+	}
+
+	/**
+	 * Cells are views of a tile grid, the first one copies the snapshot
+	 * into a grid of its own. Changes to cells don't reach the file.
+	 */
+	public Cell getCell(int x, int y) {
+		TileGrid copy = grid;
+		if (copy == null) {
+			copy = new TileGrid(width, height);
+			for (int ty = 0; ty < height; ty++) {
+				for (int tx = 0; tx < width; tx++) {
+					copy.setTile(tx, ty, getTile(tx, ty));
+					copy.setRegion(tx, ty, getRegion(tx, ty));
+				}
+			}
+			grid = copy;
+		}
+		return new Cell(copy, x, y);
+	}
+
+	/**
+	 * A basic dungeon with the tiles, regions and rooms of the snapshot, to
+	 * change without touching the file.
+	 */
+	public BasicDungeon toBasicDungeon() {
+		BasicDungeon dungeon = new BasicDungeon(width, height);
+		TileGrid copy = dungeon.getGrid();
+		int lastRegion = TileGrid.NO_REGION;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int region = getRegion(x, y);
+				copy.setTile(x, y, getTile(x, y));
+				copy.setRegion(x, y, region);
+				lastRegion = Math.max(lastRegion, region);
+			}
+		}
+		dungeon.restore(rooms, lastRegion);
+		dungeon.setSeed(seed);
+		return dungeon;
+	}
+
+	public IteratableRectangle getBounds() {
+		return new IteratableRectangle(0, 0, width, height);
+	}
+
+	public void setGenerationListener(GenerationListener listener) {
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Simple class name of the dungeon the snapshot was taken of.
+	 */
+	public String getType() {
+		return type;
+	}
+
+	public List<IteratableRectangle> getRooms() {
+		return rooms;
+	}
+}
@@ -0,0 +1,465 @@
+package minelab.model;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.List;
+
+import minelab.utils.BitGrid;
+import minelab.utils.Direction;
+import minelab.utils.IntList;
+import minelab.utils.LongIntMap;
+
+/**
+ * Compact walking graph of a generated dungeon. Rooms are nodes
+ * 0 .. roomCount - 1, followed by junctions: clusters of corridor tiles
+ * that don't simply continue a corridor, that is where corridors fork or
+ * end. Edges are the corridors between two nodes, weighted by their length
+ * in steps, and stored as adjacency arrays.
+ *
+ * Corridors wider than one tile are first thinned to their centre lines,
+ * without cutting or joining any of them, so a fork in a wide corridor is
+ * one junction like in a narrow one.
+ *
+ * Distance fields toward sets of tiles are built from the same grid, for
+ * answering "which way to the target" without a path search.
+ */
+public class NavigationGraph {
+	public static final int NO_NODE = -1;
+	public static final byte ROOM = 0;
+	public static final byte JUNCTION = 1;
+	public static final byte DEAD_END = 2;
+
+	// the eight neighbours of a tile in order around it, sides at even indices
+	private static final int[] RING_X = {0, 1, 1, 1, 0, -1, -1, -1};
+	private static final int[] RING_Y = {-1, -1, 0, 1, 1, 1, 0, -1};
+	// whether an open tile with these open neighbours (bit i for RING_X[i])
+	// can be closed without splitting or joining anything around it
+	private static final boolean[] SIMPLE = new boolean[256];
+
+	static {
+		for (int mask = 0; mask < SIMPLE.length; mask++) {
+			SIMPLE[mask] = countRingParts(mask, false) == 1 && countRingParts(~mask & 0xff, true) == 1;
+		}
+	}
+
+	private final TileGrid grid;
+	private final int roomCount;
+	private final int[] nodeAt;
+	// open tiles left after thinning the corridors, rooms stay whole
+	private final BitGrid lines;
+	private final IntList nodeTiles = new IntList();
+	private final IntList nodeKinds = new IntList();
+	private int[] edgeStarts;
+	private int[] edgeTargets;
+	private int[] edgeLengths;
+	private volatile DistanceField roomField;
+
+	private NavigationGraph(TileGrid grid, int roomCount) {
+		this.grid = grid;
+		this.roomCount = roomCount;
+		this.nodeAt = new int[grid.getWidth() * grid.getHeight()];
+		this.lines = new BitGrid(grid.getWidth(), grid.getHeight());
+		Arrays.fill(nodeAt, NO_NODE);
+	}
+
+	static NavigationGraph build(TileGrid grid, List<? extends Rectangle> rooms) {
+		NavigationGraph graph = new NavigationGraph(grid, rooms.size());
+		graph.findRooms(rooms);
+		graph.thinCorridors();
+		graph.findJunctions();
+		graph.findEdges();
+		return graph;
+	}
+
+	private void findRooms(List<? extends Rectangle> rooms) {
+		for (int node = 0; node < rooms.size(); node++) {
+			Rectangle room = rooms.get(node);
+			for (int y = room.y; y < room.y + room.height; y++) {
+				for (int x = room.x; x < room.x + room.width; x++) {
+					if (grid.getTile(x, y) != TileGrid.STONE) {
+						nodeAt[grid.index(x, y)] = node;
+					}
+				}
+			}
+			nodeTiles.add(grid.index(room.x + room.width / 2, room.y + room.height / 2));
+			nodeKinds.add(ROOM);
+		}
+	}
+
+	/**
+	 * Peels corridor tiles off one side at a time, round and round, until
+	 * only lines one tile wide are left. A tile is only peeled
+	 * if that keeps the open tiles and the stone around it in one piece
+	 * each, and never at the end of a line, so corridors keep their length,
+	 * forks and loops.
+	 */
+	private void thinCorridors() {
+		int width = grid.getWidth();
+		int height = grid.getHeight();
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (grid.getTile(x, y) != TileGrid.STONE) {
+					lines.set(x, y);
+				}
+			}
+		}
+
+		boolean peeled = true;
+		while (peeled) {
+			peeled = false;
+			for (int side = 0; side < 8; side += 2) {
+				for (int y = 0; y < height; y++) {
+					for (int x = 0; x < width; x++) {
+						if (!lines.get(x, y) || nodeAt[grid.index(x, y)] != NO_NODE
+							|| isLine(x + RING_X[side], y + RING_Y[side])) {
+							continue;
+						}
+
+						int mask = 0;
+						int sides = 0;
+						for (int i = 0; i < 8; i++) {
+							if (isLine(x + RING_X[i], y + RING_Y[i])) {
+								mask |= 1 << i;
+								sides += i % 2 == 0 ? 1 : 0;
+							}
+						}
+						if (sides > 1 && SIMPLE[mask]) {
+							lines.clear(x, y);
+							peeled = true;
+						}
+					}
+				}
+			}
+		}
+
+		// Peeling the corner of a wide corridor leaves a short line running
+		// into the corner. A line ending beside open tiles it was peeled from
+		// never was a narrow dead end, so it is trimmed back to its fork.
+		IntList ends = new IntList();
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (isSpurEnd(x, y)) {
+					ends.add(grid.index(x, y));
+				}
+			}
+		}
+		while (!ends.isEmpty()) {
+			int index = ends.removeLast();
+			int x = index % width;
+			int y = index / width;
+			if (!isSpurEnd(x, y)) {
+				continue;
+			}
+
+			lines.clear(x, y);
+			for (int dir = 0; dir < Direction.DX.length; dir++) {
+				int nx = x + Direction.DX[dir];
+				int ny = y + Direction.DY[dir];
+				if (isSpurEnd(nx, ny)) {
+					ends.add(grid.index(nx, ny));
+				}
+			}
+		}
+	}
+
+	private boolean isSpurEnd(int x, int y) {
+		if (!isLine(x, y) || nodeAt[grid.index(x, y)] != NO_NODE || countLineNeighbours(x, y) != 1) {
+			return false;
+		}
+		for (int dir = 0; dir < Direction.DX.length; dir++) {
+			int nx = x + Direction.DX[dir];
+			int ny = y + Direction.DY[dir];
+			if (grid.contains(nx, ny) && grid.getTile(nx, ny) != TileGrid.STONE && !lines.get(nx, ny)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isLine(int x, int y) {
+		return grid.contains(x, y) && lines.get(x, y);
+	}
+
+	/**
+	 * Pieces the set ring positions of the mask fall into. Open tiles
+	 * connect through sides only and count if they touch the centre by a
+	 * side; stone also connects and touches through corners.
+	 */
+	private static int countRingParts(int mask, boolean corners) {
+		int parts = 0;
+		int seen = 0;
+		int[] stack = new int[8];
+		for (int start = 0; start < 8; start++) {
+			if ((mask & (1 << start)) == 0 || (seen & (1 << start)) != 0) {
+				continue;
+			}
+
+			boolean touches = corners;
+			int size = 0;
+			stack[size++] = start;
+			seen |= 1 << start;
+			while (size > 0) {
+				int i = stack[--size];
+				touches |= i % 2 == 0;
+				for (int j = 0; j < 8; j++) {
+					int dx = Math.abs(RING_X[i] - RING_X[j]);
+					int dy = Math.abs(RING_Y[i] - RING_Y[j]);
+					boolean adjacent = corners ? Math.max(dx, dy) == 1 : dx + dy == 1;
+					if (adjacent && (mask & (1 << j)) != 0 && (seen & (1 << j)) == 0) {
+						seen |= 1 << j;
+						stack[size++] = j;
+					}
+				}
+			}
+			if (touches) {
+				parts++;
+			}
+		}
+		return parts;
+	}
+
+	/**
+	 * Joins neighbouring line tiles outside rooms without exactly two line
+	 * neighbours into junction nodes.
+	 */
+	private void findJunctions() {
+		int width = grid.getWidth();
+		IntList cluster = new IntList();
+		for (int index = 0; index < nodeAt.length; index++) {
+			if (!isJunctionTile(index)) {
+				continue;
+			}
+
+			int node = nodeTiles.size();
+			byte kind = DEAD_END;
+			nodeAt[index] = node;
+			cluster.add(index);
+			while (!cluster.isEmpty()) {
+				int tile = cluster.removeLast();
+				int x = tile % width;
+				int y = tile / width;
+				if (countLineNeighbours(x, y) > 2) {
+					kind = JUNCTION;
+				}
+
+				for (int dir = 0; dir < Direction.DX.length; dir++) {
+					if (Direction.inBounds(width, grid.getHeight(), x, y, dir, 1)) {
+						int next = grid.index(x + Direction.DX[dir], y + Direction.DY[dir]);
+						if (isJunctionTile(next)) {
+							nodeAt[next] = node;
+							cluster.add(next);
+						}
+					}
+				}
+			}
+			nodeTiles.add(index);
+			nodeKinds.add(kind);
+		}
+	}
+
+	private boolean isJunctionTile(int index) {
+		int width = grid.getWidth();
+		int x = index % width;
+		int y = index / width;
+		return nodeAt[index] == NO_NODE && lines.get(x, y) && countLineNeighbours(x, y) != 2;
+	}
+
+	private int countLineNeighbours(int x, int y) {
+		int count = 0;
+		for (int dir = 0; dir < Direction.DX.length; dir++) {
+			if (isLine(x + Direction.DX[dir], y + Direction.DY[dir])) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Walks every corridor line leaving a node to the node at its other
+	 * end. Line tiles between nodes have exactly two line neighbours, so the
+	 * walk never branches. Of several corridors between the same two nodes only the
+	 * shortest is kept.
+	 */
+	private void findEdges() {
+		int width = grid.getWidth();
+		int height = grid.getHeight();
+		LongIntMap edgeIds = new LongIntMap();
+		IntList froms = new IntList();
+		IntList tos = new IntList();
+		IntList lengths = new IntList();
+
+		for (int index = 0; index < nodeAt.length; index++) {
+			int node = nodeAt[index];
+			if (node == NO_NODE) {
+				continue;
+			}
+
+			int x = index % width;
+			int y = index / width;
+			for (int dir = 0; dir < Direction.DX.length; dir++) {
+				if (!Direction.inBounds(width, height, x, y, dir, 1)) {
+					continue;
+				}
+
+				int previous = index;
+				if (!isLine(x + Direction.DX[dir], y + Direction.DY[dir])) {
+					continue;
+				}
+				int current = grid.index(x + Direction.DX[dir], y + Direction.DY[dir]);
+
+				int length = 1;
+				while (nodeAt[current] == NO_NODE) {
+					int next = nextCorridorTile(current, previous);
+					previous = current;
+					current = next;
+					length++;
+				}
+
+				int target = nodeAt[current];
+				if (target == node) {
+					continue;
+				}
+
+				long key = LongIntMap.pack(Math.min(node, target), Math.max(node, target));
+				int edge = edgeIds.get(key);
+				if (edge == LongIntMap.MISSING) {
+					edgeIds.put(key, froms.size());
+					froms.add(node);
+					tos.add(target);
+					lengths.add(length);
+				} else if (length < lengths.get(edge)) {
+					lengths.set(edge, length);
+				}
+			}
+		}
+
+		// every corridor in both directions, grouped by the node it leaves
+		int nodeCount = getNodeCount();
+		edgeStarts = new int[nodeCount + 1];
+		for (int i = 0; i < froms.size(); i++) {
+			edgeStarts[froms.get(i) + 1]++;
+			edgeStarts[tos.get(i) + 1]++;
+		}
+		for (int node = 0; node < nodeCount; node++) {
+			edgeStarts[node + 1] += edgeStarts[node];
+		}
+
+		edgeTargets = new int[froms.size() * 2];
+		edgeLengths = new int[froms.size() * 2];
+		int[] filled = Arrays.copyOf(edgeStarts, nodeCount);
+		for (int i = 0; i < froms.size(); i++) {
+			int from = froms.get(i);
+			int to = tos.get(i);
+			edgeTargets[filled[from]] = to;
+			edgeLengths[filled[from]++] = lengths.get(i);
+			edgeTargets[filled[to]] = from;
+			edgeLengths[filled[to]++] = lengths.get(i);
+		}
+	}
+
+	private int nextCorridorTile(int index, int previous) {
+		int width = grid.getWidth();
+		int x = index % width;
+		int y = index / width;
+		for (int dir = 0; dir < Direction.DX.length; dir++) {
+			if (isLine(x + Direction.DX[dir], y + Direction.DY[dir])) {
+				int next = grid.index(x + Direction.DX[dir], y + Direction.DY[dir]);
+				if (next != previous) {
+					return next;
+				}
+			}
+		}
+		throw new IllegalStateException("Corridor tile without a way on at " + x + ", " + y);
+	}
+
+	public int getNodeCount() {
+		return nodeTiles.size();
+	}
+
+	public int getRoomCount() {
+		return roomCount;
+	}
+
+	/**
+	 * {@link #ROOM}, {@link #JUNCTION} or {@link #DEAD_END}.
+	 */
+	public byte getNodeKind(int node) {
+		return (byte) nodeKinds.get(node);
+	}
+
+	/**
+	 * A tile of the node, the centre of a room.
+	 */
+	public int getNodeX(int node) {
+		return nodeTiles.get(node) % grid.getWidth();
+	}
+
+	public int getNodeY(int node) {
+		return nodeTiles.get(node) / grid.getWidth();
+	}
+
+	/**
+	 * The node the tile belongs to, {@link #NO_NODE} for corridor tiles and
+	 * stone.
+	 */
+	public int getNodeAt(int x, int y) {
+		return nodeAt[grid.index(x, y)];
+	}
+
+	/**
+	 * Edges of a node are the indices getEdgeStart(node) until
+	 * getEdgeStart(node + 1).
+	 */
+	public int getEdgeStart(int node) {
+		return edgeStarts[node];
+	}
+
+	public int getEdgeTarget(int edge) {
+		return edgeTargets[edge];
+	}
+
+	public int getEdgeLength(int edge) {
+		return edgeLengths[edge];
+	}
+
+	/**
+	 * Number of corridors, each counted once.
+	 */
+	public int getEdgeCount() {
+		return edgeTargets.length / 2;
+	}
+
+	/**
+	 * Field toward the nearest room tile, built on first use.
+	 */
+	public DistanceField getRoomField() {
+		DistanceField field = roomField;
+		if (field == null) {
+			IntList tiles = new IntList();
+			for (int index = 0; index < nodeAt.length; index++) {
+				if (nodeAt[index] != NO_NODE && nodeAt[index] < roomCount) {
+					tiles.add(index);
+				}
+			}
+			field = roomField = DistanceField.compute(grid, tiles);
+		}
+		return field;
+	}
+
+	/**
+	 * Field toward the nearest of the given tiles, such as exits, as grid
+	 * indices y * width + x.
+	 */
+	public DistanceField getField(IntList tiles) {
+		return DistanceField.compute(grid, tiles);
+	}
+
+	/**
+	 * Field toward a single tile, such as the spawn.
+	 */
+	public DistanceField getField(int x, int y) {
+		IntList tiles = new IntList(1);
+		tiles.add(grid.index(x, y));
+		return DistanceField.compute(grid, tiles);
+	}
+}
@@ -0,0 +1,138 @@
+package minelab.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import minelab.utils.IteratableRectangle;
+
+/**
+ * A single large basic dungeon generated in sectors. The bounds are cut
+ * along even lines into sectors that are each a complete basic dungeon of
+ * their own, generated in parallel with seeds split off the dungeon seed.
+ * The finished sectors are pasted in, each as one region, and connected
+ * across the seams by a regular connect pass. Sectors keep their dead ends
+ * until then, so their corridors still reach the seams, and they are
+ * removed once for the whole dungeon.
+ *
+ * The sector seeds only depend on the dungeon seed and the sector layout,
+ * so the result is the same however many threads the pool has.
+ */
+public class PartitionedDungeon extends BasicDungeon {
+	public static final int DEFAULT_SECTOR_SIZE = 256;
+	public static final int MIN_SECTOR_SIZE = 32;
+
+	private final int sectorSize;
+	private final int[] columns;
+	private final int[] rows;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	public PartitionedDungeon(int width, int height) {
+		this(width, height, DEFAULT_SECTOR_SIZE);
+	}
+
+	public PartitionedDungeon(int width, int height, int sectorSize) {
+		super(width, height);
+		// sector borders have to fall on even lines, between the odd tunnel cells
+		sectorSize = Math.max(MIN_SECTOR_SIZE, sectorSize);
+		this.sectorSize = sectorSize % 2 == 0 ? sectorSize : sectorSize + 1;
+		this.columns = borders(this.width, this.sectorSize);
+		this.rows = borders(this.height, this.sectorSize);
+	}
+
+	/**
+	 * Even border lines from 0 to length - 1, sectorSize apart. A last
+	 * sector shorter than half the size is merged into the one before it.
+	 */
+	private static int[] borders(int length, int sectorSize) {
+		List<Integer> lines = new ArrayList<Integer>();
+		for (int line = 0; line < length - 1; line += sectorSize) {
+			lines.add(line);
+		}
+		if (lines.size() > 1 && length - 1 - lines.get(lines.size() - 1) < sectorSize / 2) {
+			lines.remove(lines.size() - 1);
+		}
+		lines.add(length - 1);
+
+		int[] borders = new int[lines.size()];
+		for (int i = 0; i < borders.length; i++) {
+			borders[i] = lines.get(i);
+		}
+		return borders;
+	}
+
+	@Override
+	public Dungeon generate() {
+		beginGeneration();
+
+		BasicDungeon[] sectors = new BasicDungeon[getSectorCount()];
+		runPhase("generateSectors", () -> generateSectors(sectors));
+		runPhase("pasteSectors", () -> pasteSectors(sectors));
+		runPhase("connectSectors", () -> connectRegions(extraConnectorChance));
+		runPhase("removeDeadEnds", () -> removeDeadEnds());
+
+		return endGeneration();
+	}
+
+	private void generateSectors(BasicDungeon[] sectors) {
+		Thread caller = Thread.currentThread();
+		SplittableRandom seeds = new SplittableRandom(seed);
+		List<ForkJoinTask<Dungeon>> tasks = new ArrayList<ForkJoinTask<Dungeon>>();
+
+		for (int row = 0; row < rows.length - 1; row++) {
+			for (int column = 0; column < columns.length - 1; column++) {
+				BasicDungeon sector = new BasicDungeon(
+					columns[column + 1] - columns[column] + 1,
+					rows[row + 1] - rows[row] + 1);
+				sector.setSeed(seeds.split().nextLong());
+				sector.recordHistory = false;
+				sector.pruneDeadEnds = false;
+				sector.setGenerationListener((d, phase) -> {
+					// sectors run on pool threads, cancellation is seen through the caller
+					if (caller.isInterrupted()) {
+						throw new CancellationException("Dungeon generation cancelled");
+					}
+				});
+
+				sectors[row * (columns.length - 1) + column] = sector;
+				tasks.add(pool.submit(() -> sector.generate()));
+			}
+		}
+
+		for (ForkJoinTask<Dungeon> task : tasks) {
+			task.join();
+		}
+	}
+
+	private void pasteSectors(BasicDungeon[] sectors) {
+		for (int row = 0; row < rows.length - 1; row++) {
+			for (int column = 0; column < columns.length - 1; column++) {
+				int index = row * (columns.length - 1) + column;
+				markRegion();
+				grid.paste(sectors[index].getGrid(), columns[column], rows[row], currentRegion);
+				for (IteratableRectangle room : sectors[index].getRooms()) {
+					IteratableRectangle moved = new IteratableRectangle(room);
+					moved.translate(columns[column], rows[row]);
+					rooms.add(moved);
+					roomIndex.add(moved);
+				}
+				sectors[index] = null;
+			}
+		}
+	}
+
+	public int getSectorCount() {
+		return (columns.length - 1) * (rows.length - 1);
+	}
+
+	public int getSectorSize() {
+		return sectorSize;
+	}
+
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+}
@@ -0,0 +1,346 @@
+package minelab.model;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import minelab.utils.Direction;
+import minelab.utils.IntList;
+import minelab.utils.LongIntMap;
+import minelab.utils.RectangleIndex;
+
+/**
+ * Which rooms of a generated dungeon lead to which. Every open tile is
+ * claimed by the room nearest to it on foot; two rooms are linked where
+ * their claims meet, at the middle of the corridor between them. Links
+ * keep the walking length of the shortest such corridor. Every room also
+ * records its entrances, the connectors and doors opened next to it.
+ *
+ * Hop distances count the links from one room to another. For up to
+ * {@link #ALL_PAIRS_LIMIT} rooms they are computed for all pairs at once,
+ * in larger dungeons one room at a time when first asked for.
+ *
+ * The graph keeps copies of the rooms it was built from, so it stays
+ * consistent when the dungeon changes afterwards.
+ */
+public class RoomGraph {
+	public static final int ALL_PAIRS_LIMIT = 1024;
+	public static final int UNREACHABLE = -1;
+	private static final int INDEX_CELL_SIZE = 16;
+
+	private final int width;
+	private final List<Rectangle> rooms;
+	private final RectangleIndex roomIndex;
+	private final Map<Rectangle, Integer> roomNumbers = new IdentityHashMap<Rectangle, Integer>();
+	// entrances of room r are from entranceStarts[r] until entranceStarts[r + 1]
+	private final int[] entranceStarts;
+	private final int[] entranceTiles;
+	private final boolean[] entranceDoors;
+	// links of room r are from linkStarts[r] until linkStarts[r + 1]
+	private int[] linkStarts;
+	private int[] linkTargets;
+	private int[] linkLengths;
+	private final short[][] hops;
+
+	private RoomGraph(TileGrid grid, List<? extends Rectangle> rooms) {
+		this.width = grid.getWidth();
+		this.rooms = new ArrayList<Rectangle>(rooms.size());
+		this.roomIndex = new RectangleIndex(new Rectangle(0, 0, grid.getWidth(), grid.getHeight()), INDEX_CELL_SIZE);
+		for (Rectangle room : rooms) {
+			Rectangle copy = new Rectangle(room);
+			roomNumbers.put(copy, this.rooms.size());
+			this.rooms.add(copy);
+			roomIndex.add(copy);
+		}
+		int roomCount = rooms.size();
+
+		IntList starts = new IntList(roomCount + 1);
+		IntList tiles = new IntList();
+		IntList doors = new IntList();
+		for (int room = 0; room < roomCount; room++) {
+			starts.add(tiles.size());
+			Rectangle rectangle = rooms.get(room);
+			for (int y = rectangle.y - 1; y <= rectangle.y + rectangle.height; y++) {
+				for (int x = rectangle.x - 1; x <= rectangle.x + rectangle.width; x++) {
+					// the ring around the room, without its corners
+					boolean insideX = x >= rectangle.x && x < rectangle.x + rectangle.width;
+					boolean insideY = y >= rectangle.y && y < rectangle.y + rectangle.height;
+					if (insideX != insideY && grid.contains(x, y) && grid.getTile(x, y) != TileGrid.STONE) {
+						tiles.add(grid.index(x, y));
+						doors.add(grid.getTile(x, y) == TileGrid.DOOR ? 1 : 0);
+					}
+				}
+			}
+		}
+		starts.add(tiles.size());
+
+		entranceStarts = toArray(starts);
+		entranceTiles = toArray(tiles);
+		entranceDoors = new boolean[doors.size()];
+		for (int i = 0; i < entranceDoors.length; i++) {
+			entranceDoors[i] = doors.get(i) != 0;
+		}
+
+		findLinks(grid);
+
+		hops = new short[roomCount][];
+		if (roomCount <= ALL_PAIRS_LIMIT) {
+			for (int room = 0; room < roomCount; room++) {
+				hops[room] = computeHops(room);
+			}
+		}
+	}
+
+	static RoomGraph build(TileGrid grid, List<? extends Rectangle> rooms) {
+		return new RoomGraph(grid, rooms);
+	}
+
+	/**
+	 * Grows all rooms at the same time, breadth first, so every open tile
+	 * goes to the nearest room, then links the rooms of every two
+	 * neighbouring tiles with different owners.
+	 */
+	private void findLinks(TileGrid grid) {
+		int height = grid.getHeight();
+		int[] owners = new int[width * height];
+		int[] distances = new int[width * height];
+		int[] queue = new int[width * height];
+		Arrays.fill(owners, UNREACHABLE);
+		int head = 0;
+		int tail = 0;
+
+		for (int room = 0; room < rooms.size(); room++) {
+			Rectangle rectangle = rooms.get(room);
+			for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+				for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+					int index = grid.index(x, y);
+					if (grid.getTile(index) != TileGrid.STONE) {
+						owners[index] = room;
+						queue[tail++] = index;
+					}
+				}
+			}
+		}
+
+		while (head < tail) {
+			int index = queue[head++];
+			int x = index % width;
+			int y = index / width;
+			for (int dir = 0; dir < Direction.DX.length; dir++) {
+				if (!Direction.inBounds(width, height, x, y, dir, 1)) {
+					continue;
+				}
+				int next = grid.index(x + Direction.DX[dir], y + Direction.DY[dir]);
+				if (owners[next] == UNREACHABLE && grid.getTile(next) != TileGrid.STONE) {
+					owners[next] = owners[index];
+					distances[next] = distances[index] + 1;
+					queue[tail++] = next;
+				}
+			}
+		}
+
+		LongIntMap linkIds = new LongIntMap();
+		IntList froms = new IntList();
+		IntList tos = new IntList();
+		IntList lengths = new IntList();
+		for (int index = 0; index < owners.length; index++) {
+			if (owners[index] == UNREACHABLE) {
+				continue;
+			}
+
+			// east and north neighbours, so every pair of tiles is seen once
+			int x = index % width;
+			int y = index / width;
+			for (int dir = 0; dir < 2; dir++) {
+				if (!Direction.inBounds(width, height, x, y, dir, 1)) {
+					continue;
+				}
+				int next = grid.index(x + Direction.DX[dir], y + Direction.DY[dir]);
+				int a = owners[index];
+				int b = owners[next];
+				if (b == UNREACHABLE || a == b) {
+					continue;
+				}
+
+				int length = distances[index] + distances[next] + 1;
+				long key = LongIntMap.pack(Math.min(a, b), Math.max(a, b));
+				int link = linkIds.get(key);
+				if (link == LongIntMap.MISSING) {
+					linkIds.put(key, froms.size());
+					froms.add(a);
+					tos.add(b);
+					lengths.add(length);
+				} else if (length < lengths.get(link)) {
+					lengths.set(link, length);
+				}
+			}
+		}
+
+		int roomCount = rooms.size();
+		linkStarts = new int[roomCount + 1];
+		for (int i = 0; i < froms.size(); i++) {
+			linkStarts[froms.get(i) + 1]++;
+			linkStarts[tos.get(i) + 1]++;
+		}
+		for (int room = 0; room < roomCount; room++) {
+			linkStarts[room + 1] += linkStarts[room];
+		}
+
+		linkTargets = new int[froms.size() * 2];
+		linkLengths = new int[froms.size() * 2];
+		int[] filled = Arrays.copyOf(linkStarts, roomCount);
+		for (int i = 0; i < froms.size(); i++) {
+			int from = froms.get(i);
+			int to = tos.get(i);
+			linkTargets[filled[from]] = to;
+			linkLengths[filled[from]++] = lengths.get(i);
+			linkTargets[filled[to]] = from;
+			linkLengths[filled[to]++] = lengths.get(i);
+		}
+	}
+
+	private static int[] toArray(IntList list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+	private short[] computeHops(int from) {
+		short[] result = new short[rooms.size()];
+		Arrays.fill(result, (short) UNREACHABLE);
+		int[] queue = new int[rooms.size()];
+		int head = 0;
+		int tail = 0;
+		result[from] = 0;
+		queue[tail++] = from;
+
+		while (head < tail) {
+			int room = queue[head++];
+			short next = (short) Math.min(result[room] + 1, Short.MAX_VALUE);
+			for (int link = linkStarts[room]; link < linkStarts[room + 1]; link++) {
+				int other = linkTargets[link];
+				if (result[other] == UNREACHABLE) {
+					result[other] = next;
+					queue[tail++] = other;
+				}
+			}
+		}
+		return result;
+	}
+
+	private short[] getHopRow(int room) {
+		short[] row = hops[room];
+		if (row == null) {
+			// rows never change once computed, a racing thread computes the same
+			row = hops[room] = computeHops(room);
+		}
+		return row;
+	}
+
+	/**
+	 * Links walked from one room to the other, 0 for the same room and
+	 * {@link #UNREACHABLE} if there is no way.
+	 */
+	public int getHops(int from, int to) {
+		return getHopRow(from)[to];
+	}
+
+	/**
+	 * The room the most hops away, the first of them on ties.
+	 */
+	public int getFarthestRoom(int from) {
+		short[] row = getHopRow(from);
+		int farthest = from;
+		for (int room = 0; room < row.length; room++) {
+			if (row[room] > row[farthest]) {
+				farthest = room;
+			}
+		}
+		return farthest;
+	}
+
+	/**
+	 * Rooms exactly the given number of hops away.
+	 */
+	public IntList getRoomsAtHops(int from, int distance) {
+		short[] row = getHopRow(from);
+		IntList result = new IntList();
+		for (int room = 0; room < row.length; room++) {
+			if (row[room] == distance) {
+				result.add(room);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The room containing the tile, or -1.
+	 */
+	public int getRoomAt(int x, int y) {
+		Rectangle room = roomIndex.find(x, y);
+		return room != null ? roomNumbers.get(room) : -1;
+	}
+
+	public int getRoomCount() {
+		return rooms.size();
+	}
+
+	public Rectangle getRoom(int room) {
+		return new Rectangle(rooms.get(room));
+	}
+
+	/**
+	 * Links of a room are the indices getLinkStart(room) until
+	 * getLinkStart(room + 1).
+	 */
+	public int getLinkStart(int room) {
+		return linkStarts[room];
+	}
+
+	public int getLinkTarget(int link) {
+		return linkTargets[link];
+	}
+
+	/**
+	 * Steps along the shortest corridor of the link, from room edge to
+	 * room edge.
+	 */
+	public int getLinkLength(int link) {
+		return linkLengths[link];
+	}
+
+	/**
+	 * Number of links, each counted once.
+	 */
+	public int getLinkCount() {
+		return linkTargets.length / 2;
+	}
+
+	/**
+	 * Entrances of a room are the indices getEntranceStart(room) until
+	 * getEntranceStart(room + 1).
+	 */
+	public int getEntranceStart(int room) {
+		return entranceStarts[room];
+	}
+
+	public int getEntranceX(int entrance) {
+		return entranceTiles[entrance] % width;
+	}
+
+	public int getEntranceY(int entrance) {
+		return entranceTiles[entrance] / width;
+	}
+
+	/**
+	 * Whether the entrance is a door rather than an open connector.
+	 */
+	public boolean isDoor(int entrance) {
+		return entranceDoors[entrance];
+	}
+}
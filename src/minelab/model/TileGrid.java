@@ -0,0 +1,147 @@
+package minelab.model;
+
+import java.util.Arrays;
+
+import org.bukkit.Material;
+
+/**
+ * Flat, row-major tile store. Materials are kept as byte codes and regions as
+ * plain ints so a dungeon costs five bytes per tile and no objects.
+ */
+public class TileGrid {
+	public static final byte STONE = 0;
+	public static final byte AIR = 1;
+	public static final byte DOOR = 2;
+	public static final int NO_REGION = -1;
+
+	private final int width;
+	private final int height;
+	private final byte[] tiles;
+	private final int[] regions;
+	private long writes;
+
+	public TileGrid(int width, int height) {
+		this.width = width;
+		this.height = height;
+		tiles = new byte[width * height];
+		regions = new int[width * height];
+		Arrays.fill(regions, NO_REGION);
+	}
+
+	public void clear() {
+		Arrays.fill(tiles, STONE);
+		Arrays.fill(regions, NO_REGION);
+	}
+
+	/**
+	 * Copies all tiles and regions of a grid of the same size.
+	 */
+	public void copyFrom(TileGrid source) {
+		if (source.width != width || source.height != height) {
+			throw new IllegalArgumentException("Grids differ in size");
+		}
+		System.arraycopy(source.tiles, 0, tiles, 0, tiles.length);
+		System.arraycopy(source.regions, 0, regions, 0, regions.length);
+		writes += tiles.length;
+	}
+
+	public int index(int x, int y) {
+		return y * width + x;
+	}
+
+	public boolean contains(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height;
+	}
+
+	/**
+	 * Copies the open tiles of a smaller grid into this one with its origin
+	 * at (x, y), putting all of them in the given region. Stone in the
+	 * source leaves this grid untouched.
+	 */
+	public void paste(TileGrid source, int x, int y, int region) {
+		for (int sy = 0; sy < source.height; sy++) {
+			int from = sy * source.width;
+			int to = (y + sy) * width + x;
+			for (int sx = 0; sx < source.width; sx++) {
+				byte tile = source.tiles[from + sx];
+				if (tile != STONE) {
+					tiles[to + sx] = tile;
+					regions[to + sx] = region;
+					writes++;
+				}
+			}
+		}
+	}
+
+	public byte getTile(int x, int y) {
+		return tiles[y * width + x];
+	}
+
+	public byte getTile(int index) {
+		return tiles[index];
+	}
+
+	public void setTile(int x, int y, byte tile) {
+		tiles[y * width + x] = tile;
+		writes++;
+	}
+
+	public void setTile(int index, byte tile) {
+		tiles[index] = tile;
+		writes++;
+	}
+
+	public int getRegion(int x, int y) {
+		return regions[y * width + x];
+	}
+
+	public void setRegion(int x, int y, int region) {
+		regions[y * width + x] = region;
+	}
+
+	public void carve(int x, int y, int region) {
+		int i = y * width + x;
+		tiles[i] = AIR;
+		regions[i] = region;
+		writes++;
+	}
+
+	public Material getMaterial(int x, int y) {
+		return toMaterial(getTile(x, y));
+	}
+
+	public void setMaterial(int x, int y, Material material) {
+		setTile(x, y, toTile(material));
+	}
+
+	/**
+	 * Number of tile writes since the grid was created, for instrumentation.
+	 */
+	public long getWrites() {
+		return writes;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public static Material toMaterial(byte tile) {
+		switch (tile) {
+			case AIR: return Material.AIR;
+			case DOOR: return Material.DARK_OAK_DOOR;
+			default: return Material.STONE;
+		}
+	}
+
+	public static byte toTile(Material material) {
+		switch (material) {
+			case AIR: return AIR;
+			case DARK_OAK_DOOR: return DOOR;
+			default: return STONE;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package minelab.model;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import minelab.utils.Direction;
+import minelab.utils.IteratableRectangle;
+
+/**
+ * An unbounded dungeon made of fixed-size super-tiles. A super-tile is only
+ * generated the first time one of its tiles is asked for, from a seed
+ * derived from the dungeon seed and its tile coordinates, so the same tile
+ * always comes out the same. Each shared edge between two super-tiles gets
+ * a gate at the same row on both sides, and corridors are carved from it
+ * into both tiles so the maze continues across the seam.
+ */
+public class TiledDungeon implements Dungeon {
+	public static final int WORLD_RADIUS = 30000000;
+	
+	private final long seed;
+	private final int tileSize;
+	private final Map<Long, BasicDungeon> tiles;
+	private GenerationListener listener;
+	
+	public TiledDungeon(long seed, int tileSize, int cacheSize) {
+		if (tileSize % 2 == 0) {
+			tileSize += 1;
+		}
+		
+		this.seed = seed;
+		this.tileSize = tileSize;
+		this.tiles = new LinkedHashMap<Long, BasicDungeon>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, BasicDungeon> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+	
+	/**
+	 * Super-tiles are generated on demand, there is nothing to do up front.
+	 */
+	public Dungeon generate() {
+		return this;
+	}
+	
+	public byte getTile(int x, int y) {
+		BasicDungeon tile = getSuperTile(Math.floorDiv(x, tileSize), Math.floorDiv(y, tileSize));
+		return tile.getTile(Math.floorMod(x, tileSize), Math.floorMod(y, tileSize));
+	}
+	
+	public Cell getCell(int x, int y) {
+		BasicDungeon tile = getSuperTile(Math.floorDiv(x, tileSize), Math.floorDiv(y, tileSize));
+		return tile.getCell(Math.floorMod(x, tileSize), Math.floorMod(y, tileSize));
+	}
+	
+	public IteratableRectangle getBounds() {
+		return new IteratableRectangle(-WORLD_RADIUS, -WORLD_RADIUS, WORLD_RADIUS * 2, WORLD_RADIUS * 2);
+	}
+	
+	public void setGenerationListener(GenerationListener listener) {
+		this.listener = listener;
+	}
+	
+	public long getSeed() {
+		return seed;
+	}
+	
+	public int getTileSize() {
+		return tileSize;
+	}
+	
+	public synchronized int getCachedTileCount() {
+		return tiles.size();
+	}
+	
+	public synchronized BasicDungeon getSuperTile(int tileX, int tileY) {
+		long key = ((long) tileX << 32) | (tileY & 0xffffffffL);
+		BasicDungeon tile = tiles.get(key);
+		if (tile == null) {
+			tile = generateSuperTile(tileX, tileY);
+			tiles.put(key, tile);
+		}
+		
+		return tile;
+	}
+	
+	private BasicDungeon generateSuperTile(int tileX, int tileY) {
+		long tileSeed = mix(seed ^ mix(tileX * 0x9E3779B97F4A7C15L + tileY));
+		DungeonType[] types = DungeonType.values();
+		DungeonType type = types[new Random(tileSeed).nextInt(types.length)];
+		
+		BasicDungeon tile = type.create(tileSize, tileSize);
+		tile.setSeed(tileSeed);
+		tile.setGenerationListener(listener);
+		tile.generate();
+		tile.setGenerationListener(null);
+		
+		TileGrid grid = tile.getGrid();
+		int last = tileSize - 1;
+		
+		// west and east edges
+		carveGate(grid, 0, gate(0, tileX, tileY));
+		carveGate(grid, last, gate(0, tileX + 1, tileY));
+		// north and south edges
+		carveGate(grid, gate(1, tileX, tileY), 0);
+		carveGate(grid, gate(1, tileX, tileY + 1), last);
+		
+		return tile;
+	}
+	
+	/**
+	 * Position of the gate on the western (axis 0) or northern (axis 1) edge
+	 * of the given tile. It is always odd, so it lines up with a maze row.
+	 */
+	private int gate(int axis, int tileX, int tileY) {
+		long hash = mix(seed + axis * 0xBF58476D1CE4E5B9L + mix(tileX * 0x9E3779B97F4A7C15L + tileY));
+		return (int) Math.floorMod(hash, (long) (tileSize - 1) / 2) * 2 + 1;
+	}
+	
+	/**
+	 * Opens the gate and the shortest way through stone from it to the
+	 * nearest open tile. The way stays off the edges of the tile, so it
+	 * never opens a gate the neighbouring tile doesn't have.
+	 */
+	private void carveGate(TileGrid grid, int x, int y) {
+		int start = grid.index(x, y);
+		if (grid.getTile(start) != TileGrid.STONE) {
+			return;
+		}
+
+		int[] parents = new int[tileSize * tileSize];
+		int[] queue = new int[tileSize * tileSize];
+		Arrays.fill(parents, -1);
+		parents[start] = start;
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = start;
+
+		while (head < tail) {
+			int index = queue[head++];
+			int cx = index % tileSize;
+			int cy = index / tileSize;
+			for (int dir = 0; dir < Direction.DX.length; dir++) {
+				int nx = cx + Direction.DX[dir];
+				int ny = cy + Direction.DY[dir];
+				if (!grid.contains(nx, ny)) {
+					continue;
+				}
+
+				int next = grid.index(nx, ny);
+				if (grid.getTile(next) != TileGrid.STONE) {
+					for (int tile = index; tile != start; tile = parents[tile]) {
+						grid.setTile(tile, TileGrid.AIR);
+					}
+					grid.setTile(start, TileGrid.AIR);
+					return;
+				}
+
+				boolean inside = nx > 0 && ny > 0 && nx < tileSize - 1 && ny < tileSize - 1;
+				if (inside && parents[next] < 0) {
+					parents[next] = index;
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+	
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
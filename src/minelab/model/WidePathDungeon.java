@@ -1,73 +1,34 @@
 package minelab.model;
 
-import java.awt.Point;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-import java.util.Random;
-import java.util.Set;
-import java.util.logging.Logger;
-import java.util.stream.Collectors;
-
-import org.bukkit.Material;
-
+import minelab.utils.BitGrid;
 import minelab.utils.Direction;
+import minelab.utils.IntList;
 import minelab.utils.IteratableRectangle;
-import minelab.utils.Vector;
 
 public class WidePathDungeon extends BasicDungeon {
-	private static double WIND_PERCENT = 0.1;
-	private static double EXTRA_CONNECTOR_CHANCE = 0;
-	private static int ROOMS_TRIAL_LIMIT = 10;
-	private List<Cell> expandableCells = new ArrayList<Cell>();
+	private static final double WIND_PERCENT = 0.1;
+	private static final double EXTRA_CONNECTOR_CHANCE = 0;
+	private static final int ROOMS_TRIAL_LIMIT = 10;
+	private IntList expandableCells = new IntList();
+	private BitGrid prunedCells;
 
 	public WidePathDungeon(int width, int height) {
 		super(width, height);
+		roomsTrialLimit = ROOMS_TRIAL_LIMIT;
+		extraConnectorChance = EXTRA_CONNECTOR_CHANCE;
+		prunedCells = new BitGrid(this.width, this.height);
 	}
 	
 	public Dungeon generate() {
-		(new IteratableRectangle(0, 0, this.width, this.height)).getPoints().stream().forEach(
-			(point) -> {
-				cells[point.x][point.y] = new Cell(point);
-			}
-		);
+		beginGeneration();
 
-		fillRooms(ROOMS_TRIAL_LIMIT);
-		fillTunnels();
-		connectRegions(EXTRA_CONNECTOR_CHANCE);
-		removeDeadEnds();
-		expandTunnels();
+		runPhase("fillRooms", () -> fillRooms(roomsTrialLimit));
+		runPhase("fillTunnels", () -> fillTunnels());
+		runPhase("connectRegions", () -> connectRegions(extraConnectorChance));
+		runPhase("removeDeadEnds", () -> removeDeadEnds());
+		runPhase("expandTunnels", () -> expandTunnels());
 		
-		return (Dungeon) this;
-	}
-
-	public Cell[][] getCells() {
-		return cells;
-	}
-
-	public Cell getCell(int x, int y) {
-		return cells[x][y];
-	}
-
-	public Cell getCell(Point pos) {
-		return cells[pos.x][pos.y];
-	}
-
-	protected void fillRooms(int trialLimit) {
-
-		for (int i = 0; i < trialLimit; i++) {
-			IteratableRectangle room = randomRectangle(5, 13);
-			boolean isOverlap = rooms.stream().anyMatch((r) -> r.intersects(room));
-			if (!isOverlap) {
-				rooms.add(room);
-				markRegion();
-				carve(room);
-			}
-		}
-
+		return endGeneration();
 	}
 
 	@Override
@@ -77,179 +38,166 @@ public class WidePathDungeon extends BasicDungeon {
 		
 		for (int y = 3; y < bounds.height - 2; y += 4) {
 			for (int x = 3; x < bounds.width - 2; x += 4) {
-				Point pos = new Point(x, y);
-				Cell cell = getCell(pos);
-				pos.translate(1, 0);
-				Cell cell2 = getCell(pos);
-				pos.translate(-2, 0);
-				Cell cell3 = getCell(pos);
-				pos.translate(1, 1);
-				Cell cell4 = getCell(pos);
-				pos.translate(0, -2);
-				Cell cell5 = getCell(pos);
-
-				if (cell.getMaterial() != Material.STONE && 
-						((cell2.getMaterial() != Material.STONE && cell3.getMaterial() != Material.STONE) || 
-							(cell4.getMaterial() != Material.STONE && cell5.getMaterial() != Material.STONE))) {
+				byte tile = grid.getTile(x, y);
+				byte tile2 = grid.getTile(x + 1, y);
+				byte tile3 = grid.getTile(x - 1, y);
+				byte tile4 = grid.getTile(x, y + 1);
+				byte tile5 = grid.getTile(x, y - 1);
+
+				if (tile != TileGrid.STONE && 
+						((tile2 != TileGrid.STONE && tile3 != TileGrid.STONE) || 
+							(tile4 != TileGrid.STONE && tile5 != TileGrid.STONE))) {
 					continue;
 				}
 
-				growMaze(cell);
+				growMaze(x, y);
 
 			}
 		}
 	}
 
-	protected void growMaze(Cell start) {
-		List<Cell> cells = new ArrayList<Cell>();
-		Vector lastDir = null;
+	protected void growMaze(int startX, int startY) {
+		IntList cells = mazeStack;
+		cells.clear();
+		int lastDir = -1;
 	
 		markRegion();
-		carve(start);
-		cells.add(start);
+		carve(startX, startY);
+		cells.add(grid.index(startX, startY));
 	
 		while (!cells.isEmpty()) {
-			Cell cell = cells.get(cells.size() - 1);
+			int cell = cells.last();
+			int x = cell % width;
+			int y = cell / width;
 	
-			List<Vector> unmadeCells = new ArrayList<Vector>();
-			for (Vector dir : Direction.CARDINAL) {
-				if (canCarve(cell, dir)) {
-					unmadeCells.add(dir);
+			// bit i is set when CARDINAL[i] can be carved
+			int unmadeCells = 0;
+			int unmadeCount = 0;
+			for (int dir = 0; dir < Direction.DX.length; dir++) {
+				if (canCarve(x, y, dir)) {
+					unmadeCells |= 1 << dir;
+					unmadeCount++;
 				}
 			}
 	
-			if (!unmadeCells.isEmpty()) {
-				Vector dir;
-				if (unmadeCells.contains(lastDir) && random.nextDouble() > WIND_PERCENT) {
+			if (unmadeCount > 0) {
+				int dir;
+				if (lastDir >= 0 && (unmadeCells & (1 << lastDir)) != 0 && random.nextDouble() > WIND_PERCENT) {
 					dir = lastDir;
 				} else {
-					int idx = random.nextInt(unmadeCells.size());
-					dir = unmadeCells.get(idx);
+					dir = Direction.nthDirection(unmadeCells, random.nextInt(unmadeCount));
 				}
 	
-				Point next = dir.add(cell.getPosition());
-				carve(getCell(next));
-				expandableCells.add(getCell(next));
+				int nextX = x + Direction.DX[dir];
+				int nextY = y + Direction.DY[dir];
+				carve(nextX, nextY);
+				expandableCells.add(grid.index(nextX, nextY));
 	
-				Point nextSecond = dir.multiply(2).add(cell.getPosition());
-				Cell nextSecondCell = getCell(nextSecond);
-				carve(nextSecondCell);
-				expandableCells.add(nextSecondCell);
+				int nextSecondX = x + Direction.DX[dir] * 2;
+				int nextSecondY = y + Direction.DY[dir] * 2;
+				carve(nextSecondX, nextSecondY);
+				expandableCells.add(grid.index(nextSecondX, nextSecondY));
 	
-				cells.add(nextSecondCell);
+				cells.add(grid.index(nextSecondX, nextSecondY));
 				lastDir = dir;
 			} else {
-				cells.remove(cells.size() - 1);
-				lastDir = null;
+				cells.removeLast();
+				lastDir = -1;
 			}
 		}
 	}
 
-	protected boolean canCarve(Cell cell, Vector direction) {
-		Vector twoSteps = direction.multiply(2);
-		Vector threeSteps = direction.multiply(5);
-		Point pos = cell.getPosition();
-	
+	protected boolean canCarve(int x, int y, int direction) {
 		// check if in bounds
-		if (!getBounds().contains(threeSteps.add(pos))) {
+		if (!Direction.inBounds(width, height, x, y, direction, 5)) {
 			return false;
 		}
 	
-		Point nextPos = twoSteps.add(pos);
-		Cell nextCell = getCell(nextPos.x, nextPos.y);
-		Cell nextCell2;
-		Cell nextCell3;
-		Cell nextCell4;
-		Cell nextCell5;
+		int nextX = x + Direction.DX[direction] * 2;
+		int nextY = y + Direction.DY[direction] * 2;
+		byte nextTile = grid.getTile(nextX, nextY);
+		byte nextTile2;
+		byte nextTile3;
+		byte nextTile4;
+		byte nextTile5;
 		
-		if (direction.getX() == 0) {
-			nextCell2 = getCell(nextPos.x + 1, nextPos.y);
-			nextCell3 = getCell(nextPos.x - 1, nextPos.y);
-			nextCell4 = getCell(nextPos.x + 2, nextPos.y);
-			nextCell5 = getCell(nextPos.x - 2, nextPos.y);
+		if (Direction.DX[direction] == 0) {
+			nextTile2 = grid.getTile(nextX + 1, nextY);
+			nextTile3 = grid.getTile(nextX - 1, nextY);
+			nextTile4 = grid.getTile(nextX + 2, nextY);
+			nextTile5 = grid.getTile(nextX - 2, nextY);
 		} else {
-			nextCell2 = getCell(nextPos.x, nextPos.y + 1);
-			nextCell3 = getCell(nextPos.x, nextPos.y - 1);
-			nextCell4 = getCell(nextPos.x, nextPos.y + 2);
-			nextCell5 = getCell(nextPos.x, nextPos.y - 2);
+			nextTile2 = grid.getTile(nextX, nextY + 1);
+			nextTile3 = grid.getTile(nextX, nextY - 1);
+			nextTile4 = grid.getTile(nextX, nextY + 2);
+			nextTile5 = grid.getTile(nextX, nextY - 2);
 		}
 		
 		
-		return nextCell.getMaterial() == Material.STONE && 
-				nextCell2.getMaterial() == Material.STONE && 
-				nextCell3.getMaterial() == Material.STONE && 
-				nextCell4.getMaterial() == Material.STONE && 
-				nextCell5.getMaterial() == Material.STONE;
+		return nextTile == TileGrid.STONE && 
+				nextTile2 == TileGrid.STONE && 
+				nextTile3 == TileGrid.STONE && 
+				nextTile4 == TileGrid.STONE && 
+				nextTile5 == TileGrid.STONE;
 	}
 
-	protected void removeDeadEnds() {
-	    boolean done = false;
-	
-	    log.info("Removing dead ends");
-	    while (!done) {
-	    	IteratableRectangle bounds = this.getBounds();
-	    	done = !bounds.getPoints().stream().anyMatch(
-	    		(pos) -> {
-	    			Cell currentCell = getCell(pos); 
-	    			if (currentCell.getMaterial() == Material.STONE) {
-	    				return false;
-	    			}
-	    			// If it only has one exit, it's a dead end.
-	    	        int exits = 0;
-	    	        for (Vector dir : Direction.CARDINAL) {
-	    	        	Cell suroundCell = getCell(dir.add(pos));
-	    	        	if (suroundCell.getMaterial() != Material.STONE) {
-	    				  exits++;
-	    	        	}
-	    	        }
-
-	    	        if (exits != 1) {
-	    	        	return false;
-	    	        }
-
-	    	        currentCell.setMaterial(Material.STONE);
-	    	        expandableCells.remove(currentCell);
-	    	        return true; 
-	    		} 
-	    	);
-	    }
+	/**
+	 * Wide paths are expanded over the whole maze and pruned tiles are
+	 * remembered across it, an area can't be regenerated into that. Use
+	 * {@link #copy()}, a basic dungeon with the same tiles, instead.
+	 */
+	@Override
+	public IteratableRectangle regenerate(IteratableRectangle requested, long areaSeed) {
+		throw new UnsupportedOperationException("Wide path dungeons can't be regenerated in part, regenerate a copy()");
+	}
 
+	@Override
+	protected void onDeadEndRemoved(int x, int y) {
+		prunedCells.set(x, y);
 	}
 	
+	/**
+	 * Widens the tunnels by opening the stone around every surviving tunnel
+	 * cell, except near doors. Done as bitmask dilations: the cells within
+	 * two tiles of a door are masked off, the remaining tunnel cells are
+	 * grown by one tile and the stone under the result is carved.
+	 */
 	protected void expandTunnels() {
-		expandableCells.stream().forEach(
-			(cell) -> {
-				if (cell.getMaterial() != Material.AIR) {
-					return;
-				}
-				List<Cell> candidates = getSurroundingCells(cell).stream().filter((c) -> {
-					return c.getMaterial() == Material.STONE;
-				}).collect(Collectors.toList());
-				
-				boolean hasDoor = getSurroundingCells(cell).stream().anyMatch((c) -> {
-					boolean isDoor = getSurroundingCells(c).stream().anyMatch(
-						(cc) -> cc.getMaterial() == Material.DARK_OAK_DOOR 
-					);
-					
-					return isDoor || c.getMaterial() != Material.STONE && c.getMaterial() != Material.AIR;
-				});
-				
-				if (!hasDoor) {
-					candidates.stream().forEach((c) -> {
-						c.setMaterial(Material.AIR);
-					});
+		BitGrid doors = new BitGrid(width, height);
+		BitGrid stone = new BitGrid(width, height);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				byte tile = grid.getTile(x, y);
+				if (tile == TileGrid.DOOR) {
+					doors.set(x, y);
+				} else if (tile == TileGrid.STONE) {
+					stone.set(x, y);
 				}
-			} 
-		);
-		
+			}
+		}
+
+		BitGrid seeds = new BitGrid(width, height);
+		for (int i = 0; i < expandableCells.size(); i++) {
+			int index = expandableCells.get(i);
+			int x = index % width;
+			int y = index / width;
+			if (!prunedCells.get(x, y) && grid.getTile(index) == TileGrid.AIR) {
+				seeds.set(x, y);
+			}
+		}
+		seeds.andNot(doors.dilate().dilate());
+
+		BitGrid widened = seeds.dilate();
+		widened.and(stone);
+		widened.forEach((x, y) -> grid.setTile(x, y, TileGrid.AIR));
 	}
 
-	protected void addJunction(Point pos) {
+	protected void addJunction(int x, int y) {
 		double rate = random.nextDouble(); 
 		if (rate < 0.95) {
-			getCell(pos).setMaterial(Material.AIR);
+			grid.setTile(x, y, TileGrid.AIR);
 		} else {
-			getCell(pos).setMaterial(Material.DARK_OAK_DOOR);
+			grid.setTile(x, y, TileGrid.DOOR);
 		}
 		
 	}
@@ -0,0 +1,140 @@
+package minelab.plugin;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import minelab.model.BasicDungeon;
+import minelab.model.Dungeon;
+import minelab.model.GenerationListener;
+import minelab.model.MappedDungeon;
+import minelab.utils.IteratableRectangle;
+
+/**
+ * Generates dungeons on a background thread so the server tick loop never
+ * waits for them. Only one generation runs at a time; starting a new one
+ * cancels the previous one.
+ */
+public class AsyncDungeonGenerator {
+	private final ExecutorService executor;
+	private Future<?> task;
+	private CompletableFuture<?> completion;
+
+	public AsyncDungeonGenerator() {
+		executor = Executors.newSingleThreadExecutor((runnable) -> {
+			Thread thread = new Thread(runnable, "Minelab-Generator");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Starts generating the dungeon. The returned future completes on the
+	 * generator thread, callers must hop back to the main thread themselves
+	 * before touching the world.
+	 */
+	public synchronized CompletableFuture<Dungeon> generate(Dungeon dungeon, GenerationListener listener) {
+		return submit(() -> run(dungeon, listener, () -> dungeon.generate()));
+	}
+
+	/**
+	 * Starts regenerating an area of a copy of the dungeon with a new seed,
+	 * see {@link BasicDungeon#regenerate}. The dungeon is copied on the
+	 * generator thread, it must not change until the future completes.
+	 */
+	public synchronized CompletableFuture<Regeneration> regenerate(Dungeon dungeon, IteratableRectangle area,
+			long seed, GenerationListener listener) {
+		return submit(() -> {
+			BasicDungeon copy = copy(dungeon);
+			IteratableRectangle changed = run(copy, listener, () -> copy.regenerate(area, seed));
+			return new Regeneration(copy, changed);
+		});
+	}
+
+	/**
+	 * Whether {@link #regenerate} can renew part of the dungeon: only single
+	 * floor dungeons can.
+	 */
+	public static boolean canRegenerate(Dungeon dungeon) {
+		return dungeon instanceof BasicDungeon || dungeon instanceof MappedDungeon;
+	}
+
+	private static BasicDungeon copy(Dungeon dungeon) {
+		if (dungeon instanceof MappedDungeon) {
+			return ((MappedDungeon) dungeon).toBasicDungeon();
+		}
+		return ((BasicDungeon) dungeon).copy();
+	}
+
+	private static <T> T run(Dungeon dungeon, GenerationListener listener, Callable<T> work) throws Exception {
+		dungeon.setGenerationListener(listener);
+		try {
+			return work.call();
+		} finally {
+			dungeon.setGenerationListener(null);
+		}
+	}
+
+	private <T> CompletableFuture<T> submit(Callable<T> work) {
+		cancel();
+
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		task = executor.submit(() -> {
+			try {
+				future.complete(work.call());
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		});
+		completion = future;
+
+		return future;
+	}
+
+	/**
+	 * The copy of a dungeon with an area regenerated, and the tiles that
+	 * may have changed.
+	 */
+	public static class Regeneration {
+		private final BasicDungeon dungeon;
+		private final IteratableRectangle changed;
+
+		Regeneration(BasicDungeon dungeon, IteratableRectangle changed) {
+			this.dungeon = dungeon;
+			this.changed = changed;
+		}
+
+		public BasicDungeon getDungeon() {
+			return dungeon;
+		}
+
+		public IteratableRectangle getChanged() {
+			return changed;
+		}
+	}
+
+	/**
+	 * Cancels the running generation, if any. Returns false if there was
+	 * nothing to cancel.
+	 */
+	public synchronized boolean cancel() {
+		if (completion == null || completion.isDone()) {
+			return false;
+		}
+
+		task.cancel(true);
+		completion.cancel(false);
+		return true;
+	}
+
+	public synchronized boolean isGenerating() {
+		return completion != null && !completion.isDone();
+	}
+
+	public void shutdown() {
+		cancel();
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,16 @@
+package minelab.plugin;
+
+/**
+ * Chunk regeneration progress published over JMX as
+ * minelab:type=ChunkRegeneration.
+ */
+public interface ChunkRegenerationMXBean {
+	public int getPendingChunks();
+	public long getRegeneratedChunks();
+	public long getSkippedChunks();
+	public long getUnchangedChunks();
+	public double getTickBudgetMillis();
+	public double getLastTickMillis();
+	public double getMaxTickMillis();
+	public long getBusyTicks();
+}
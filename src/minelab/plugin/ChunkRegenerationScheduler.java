@@ -0,0 +1,251 @@
+package minelab.plugin;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import minelab.utils.IteratableRectangle;
+
+/**
+ * Regenerates stale chunks a few at a time on the main thread, spending at
+ * most a fixed number of milliseconds per tick. Chunks closest to a player
+ * go first; the order is refreshed whenever chunks are queued and once a
+ * second while players move around. At least one chunk is regenerated per
+ * busy tick, so the queue always drains.
+ */
+public class ChunkRegenerationScheduler extends BukkitRunnable implements ChunkRegenerationMXBean {
+	public static final String OBJECT_NAME = "minelab:type=ChunkRegeneration";
+	public static final int REPRIORITIZE_TICKS = 20;
+
+	private final Set<Long> pending = new LinkedHashSet<Long>();
+	private final PriorityQueue<PendingChunk> queue = new PriorityQueue<PendingChunk>();
+	private final long budgetNanos;
+	private World world;
+	private DungeonChunkGenerator generator;
+	private boolean reprioritize;
+	private int ticksSincePrioritized;
+
+	// the set itself is only touched on the main thread
+	private volatile int pendingCount;
+	private volatile long regenerated;
+	private volatile long skipped;
+	private volatile long unchanged;
+	private volatile long busyTicks;
+	private volatile long lastTickNanos;
+	private volatile long maxTickNanos;
+
+	public ChunkRegenerationScheduler(double budgetMillis) {
+		this.budgetNanos = (long) (budgetMillis * 1e6);
+	}
+
+	/**
+	 * Queues the loaded chunks of the world, dropping chunks still queued
+	 * for another world. Whether a chunk is stale is only checked when its
+	 * turn comes, within the tick budget, since that may compile its
+	 * template. Returns the number of chunks queued.
+	 */
+	public int enqueueLoadedChunks(World world, DungeonChunkGenerator generator) {
+		use(world, generator);
+
+		int queued = 0;
+		for (Chunk chunk : world.getLoadedChunks()) {
+			if (enqueue(chunk.getX(), chunk.getZ())) {
+				queued++;
+			}
+		}
+		return queued;
+	}
+
+	/**
+	 * Queues the loaded chunks over the given dungeon tiles, leaving the
+	 * rest of the world alone. Returns the number of chunks queued.
+	 */
+	public int enqueueLoadedChunks(World world, DungeonChunkGenerator generator, IteratableRectangle tiles) {
+		use(world, generator);
+
+		int queued = 0;
+		int minX = Math.floorDiv(tiles.x, CompiledDungeon.CHUNK_WIDTH);
+		int minZ = Math.floorDiv(tiles.y, CompiledDungeon.CHUNK_WIDTH);
+		int maxX = Math.floorDiv(tiles.x + tiles.width - 1, CompiledDungeon.CHUNK_WIDTH);
+		int maxZ = Math.floorDiv(tiles.y + tiles.height - 1, CompiledDungeon.CHUNK_WIDTH);
+		for (int cz = minZ; cz <= maxZ; cz++) {
+			for (int cx = minX; cx <= maxX; cx++) {
+				if (world.isChunkLoaded(cx, cz) && enqueue(cx, cz)) {
+					queued++;
+				}
+			}
+		}
+		return queued;
+	}
+
+	/**
+	 * Queues one chunk, like a chunk just loaded from disk. Returns false
+	 * if it was queued already.
+	 */
+	public boolean enqueueChunk(World world, DungeonChunkGenerator generator, int cx, int cz) {
+		use(world, generator);
+		return enqueue(cx, cz);
+	}
+
+	private void use(World world, DungeonChunkGenerator generator) {
+		if (this.world != world) {
+			pending.clear();
+			queue.clear();
+			this.world = world;
+		}
+		this.generator = generator;
+	}
+
+	private boolean enqueue(int cx, int cz) {
+		if (!pending.add(CompiledDungeon.key(cx, cz))) {
+			return false;
+		}
+		pendingCount = pending.size();
+		reprioritize = true;
+		return true;
+	}
+
+	@Override
+	public void run() {
+		if (pending.isEmpty()) {
+			lastTickNanos = 0;
+			return;
+		}
+
+		long start = System.nanoTime();
+		if (reprioritize || ++ticksSincePrioritized >= REPRIORITIZE_TICKS) {
+			prioritize();
+		}
+
+		do {
+			PendingChunk next = queue.poll();
+			if (next == null) {
+				break;
+			}
+			if (!pending.remove(next.key)) {
+				continue;
+			}
+
+			int cx = (int) (next.key >> 32);
+			int cz = (int) next.key;
+			// an unloaded chunk is generated from the new dungeon when it loads again
+			if (!world.isChunkLoaded(cx, cz)) {
+				skipped++;
+			} else if (!generator.isStale(cx, cz)) {
+				// regenerated meanwhile, or generated from the dungeon as it is
+				unchanged++;
+			} else {
+				world.regenerateChunk(cx, cz);
+				regenerated++;
+			}
+		} while (System.nanoTime() - start < budgetNanos);
+
+		long nanos = System.nanoTime() - start;
+		pendingCount = pending.size();
+		lastTickNanos = nanos;
+		maxTickNanos = Math.max(maxTickNanos, nanos);
+		busyTicks++;
+	}
+
+	private void prioritize() {
+		List<Player> players = world.getPlayers();
+		int[] playerX = new int[players.size()];
+		int[] playerZ = new int[players.size()];
+		for (int i = 0; i < playerX.length; i++) {
+			Location location = players.get(i).getLocation();
+			playerX[i] = location.getBlockX() >> 4;
+			playerZ[i] = location.getBlockZ() >> 4;
+		}
+
+		queue.clear();
+		for (long key : pending) {
+			int cx = (int) (key >> 32);
+			int cz = (int) key;
+			long distance = Long.MAX_VALUE;
+			for (int i = 0; i < playerX.length; i++) {
+				long dx = cx - playerX[i];
+				long dz = cz - playerZ[i];
+				distance = Math.min(distance, dx * dx + dz * dz);
+			}
+			queue.add(new PendingChunk(key, distance));
+		}
+
+		reprioritize = false;
+		ticksSincePrioritized = 0;
+	}
+
+	public void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (server.isRegistered(name)) {
+			server.unregisterMBean(name);
+		}
+		server.registerMBean(this, name);
+	}
+
+	public void unregister() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (server.isRegistered(name)) {
+			server.unregisterMBean(name);
+		}
+	}
+
+	public int getPendingChunks() {
+		return pendingCount;
+	}
+
+	public long getRegeneratedChunks() {
+		return regenerated;
+	}
+
+	public long getSkippedChunks() {
+		return skipped;
+	}
+
+	public long getUnchangedChunks() {
+		return unchanged;
+	}
+
+	public double getTickBudgetMillis() {
+		return budgetNanos / 1e6;
+	}
+
+	public double getLastTickMillis() {
+		return lastTickNanos / 1e6;
+	}
+
+	public double getMaxTickMillis() {
+		return maxTickNanos / 1e6;
+	}
+
+	public long getBusyTicks() {
+		return busyTicks;
+	}
+
+	private static class PendingChunk implements Comparable<PendingChunk> {
+		final long key;
+		final long distance;
+
+		PendingChunk(long key, long distance) {
+			this.key = key;
+			this.distance = distance;
+		}
+
+		public int compareTo(PendingChunk other) {
+			return Long.compare(distance, other.distance);
+		}
+	}
+}
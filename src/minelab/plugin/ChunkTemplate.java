@@ -0,0 +1,332 @@
+package minelab.plugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import org.bukkit.generator.ChunkGenerator.ChunkData;
+import org.bukkit.material.Door;
+import org.bukkit.material.Ladder;
+import org.bukkit.material.MaterialData;
+
+import minelab.model.Dungeon;
+import minelab.model.DungeonStack;
+import minelab.model.TileGrid;
+import minelab.utils.IteratableRectangle;
+
+/**
+ * The bottom layers of one chunk, baked into palette indices. Serving the
+ * chunk is a straight copy of the template into the chunk data, all the
+ * decisions about floor texture, spawn and doors are made when compiling.
+ * The copy is done in boxes of equal blocks, so a chunk of plain wall takes
+ * a handful of writes and only busy parts of the layout take many.
+ * A dungeon stack gets one {@link #FLOOR_HEIGHT} tall band per floor.
+ */
+public class ChunkTemplate {
+	public static final int CHUNK_WIDTH = 16;
+	public static final int FLOOR_HEIGHT = 4;
+
+	static final byte BEDROCK = 0;
+	static final byte COBBLESTONE = 1;
+	static final byte STONE = 2;
+	static final byte MOSSY_COBBLESTONE = 3;
+	static final byte GRAVEL = 4;
+	static final byte GLOWSTONE = 5;
+	static final byte GRASS = 6;
+	static final byte AIR = 7;
+	static final byte DOOR_BOTTOM = 8;
+	static final byte DOOR_TOP = 9;
+	// LADDER + wall direction index, see Direction.DX
+	static final byte LADDER = 10;
+
+	private static final int BOX_SIZE = 7;
+	static final MaterialData[] PALETTE = createPalette();
+	private static final byte[] ALTERNATIVE_FLOOR = { STONE, MOSSY_COBBLESTONE, GRAVEL };
+	// y = 1..3 of a column, indexed by tile code
+	private static final byte[][] TILE_COLUMNS = {
+		{ STONE, STONE, STONE },
+		{ AIR, AIR, AIR },
+		{ DOOR_BOTTOM, DOOR_TOP, GLOWSTONE }
+	};
+
+	private final int height;
+	private final byte[] blocks;
+	private long hash;
+	// BOX_SIZE bytes per box: x, y, z from (inclusive), x, y, z to (exclusive), palette index
+	private byte[] boxes;
+
+	private ChunkTemplate(int floors) {
+		height = floors * FLOOR_HEIGHT;
+		blocks = new byte[height * CHUNK_WIDTH * CHUNK_WIDTH];
+	}
+
+	public void apply(ChunkData chunk) {
+		for (int i = 0; i < boxes.length; i += BOX_SIZE) {
+			chunk.setRegion(boxes[i], boxes[i + 1], boxes[i + 2], boxes[i + 3], boxes[i + 4], boxes[i + 5], PALETTE[boxes[i + 6]]);
+		}
+	}
+
+	/**
+	 * Number of setRegion calls it takes to apply this template.
+	 */
+	public int getBoxCount() {
+		return boxes.length / BOX_SIZE;
+	}
+
+	/**
+	 * Bakes a chunk: bedrock, a randomly textured floor seeded by the chunk
+	 * position, grass on the spawn chunk and the dungeon tiles on top.
+	 */
+	public static ChunkTemplate compile(Dungeon dungeon, int cx, int cz, boolean spawn) {
+		int floors = getFloorCount(dungeon);
+		ChunkTemplate template = new ChunkTemplate(floors);
+		template.fillFloors(new Random(((long) cx << 32) ^ (cz & 0xffffffffL)));
+
+		if (spawn) {
+			template.fillLayer(1, GRASS);
+		}
+
+		if (dungeon != null) {
+			IteratableRectangle chunkRectangle = new IteratableRectangle(cx * CHUNK_WIDTH, cz * CHUNK_WIDTH, CHUNK_WIDTH, CHUNK_WIDTH);
+			IteratableRectangle dungeonRectangle = dungeon.getBounds();
+			if (chunkRectangle.intersects(dungeonRectangle)) {
+				IteratableRectangle area = chunkRectangle.intersection(dungeonRectangle);
+				if (dungeon instanceof DungeonStack) {
+					template.fillStack((DungeonStack) dungeon, area);
+				} else {
+					template.fillDungeon(dungeon, area, 0);
+				}
+			}
+		}
+
+		template.seal();
+		return template;
+	}
+
+	public static ChunkTemplate compileFloor(long seed, int floors) {
+		ChunkTemplate template = new ChunkTemplate(floors);
+		template.fillFloors(new Random(seed));
+		template.seal();
+		return template;
+	}
+
+	public static int getFloorCount(Dungeon dungeon) {
+		return dungeon instanceof DungeonStack ? ((DungeonStack) dungeon).getFloorCount() : 1;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	byte getBlock(int x, int y, int z) {
+		return blocks[index(x, y, z)];
+	}
+
+	/**
+	 * 64-bit FNV-1a of the blocks. Two templates with the same hash can be
+	 * taken to build the same chunk.
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	private void seal() {
+		hash = computeHash();
+		boxes = computeBoxes();
+	}
+
+	/**
+	 * Splits every row into runs of one block, merges runs that continue
+	 * unchanged over the next rows of a layer into rectangles, then stacks
+	 * rectangles that repeat unchanged in the layers above into boxes.
+	 */
+	private byte[] computeBoxes() {
+		List<byte[]> boxes = new ArrayList<byte[]>();
+		List<byte[]> open = new ArrayList<byte[]>();
+		Map<Integer, byte[]> below = new HashMap<Integer, byte[]>();
+		Map<Integer, byte[]> layer = new HashMap<Integer, byte[]>();
+
+		for (int y = 0; y < height; y++) {
+			List<byte[]> rectangles = new ArrayList<byte[]>();
+			for (int z = 0; z <= CHUNK_WIDTH; z++) {
+				List<byte[]> continued = new ArrayList<byte[]>();
+				int x = 0;
+				while (z < CHUNK_WIDTH && x < CHUNK_WIDTH) {
+					byte block = blocks[index(x, y, z)];
+					int end = x + 1;
+					while (end < CHUNK_WIDTH && blocks[index(end, y, z)] == block) {
+						end++;
+					}
+
+					byte[] rectangle = null;
+					for (byte[] candidate : open) {
+						if (candidate[0] == x && candidate[3] == end && candidate[6] == block) {
+							rectangle = candidate;
+							break;
+						}
+					}
+					if (rectangle == null) {
+						rectangle = new byte[] { (byte) x, (byte) y, (byte) z, (byte) end, (byte) (y + 1), 0, block };
+					} else {
+						open.remove(rectangle);
+					}
+					continued.add(rectangle);
+					x = end;
+				}
+
+				for (byte[] rectangle : open) {
+					rectangle[5] = (byte) z;
+					rectangles.add(rectangle);
+				}
+				open = continued;
+			}
+
+			layer.clear();
+			for (byte[] rectangle : rectangles) {
+				int key = footprint(rectangle);
+				byte[] box = below.get(key);
+				if (box != null) {
+					box[4] = (byte) (y + 1);
+					layer.put(key, box);
+				} else {
+					boxes.add(rectangle);
+					layer.put(key, rectangle);
+				}
+			}
+
+			Map<Integer, byte[]> swap = below;
+			below = layer;
+			layer = swap;
+		}
+
+		byte[] packed = new byte[boxes.size() * BOX_SIZE];
+		for (int i = 0; i < boxes.size(); i++) {
+			System.arraycopy(boxes.get(i), 0, packed, i * BOX_SIZE, BOX_SIZE);
+		}
+		return packed;
+	}
+
+	private static int footprint(byte[] rectangle) {
+		return (((rectangle[0] * 17 + rectangle[3]) * 17 + rectangle[2]) * 17 + rectangle[5]) * 256 + rectangle[6];
+	}
+
+	private long computeHash() {
+		long h = 0xcbf29ce484222325L ^ height;
+		for (byte block : blocks) {
+			h ^= block;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	private void fillFloors(Random random) {
+		fillLayer(0, BEDROCK);
+
+		for (int base = 0; base < height; base += FLOOR_HEIGHT) {
+			if (base > 0) {
+				fillLayer(base, COBBLESTONE);
+			}
+
+			for (int z = 0; z < CHUNK_WIDTH; z++) {
+				for (int x = 0; x < CHUNK_WIDTH; x++) {
+					byte floor = COBBLESTONE;
+					if (random.nextDouble() >= 0.85) {
+						floor = ALTERNATIVE_FLOOR[random.nextInt(ALTERNATIVE_FLOOR.length)];
+					}
+
+					blocks[index(x, base + 1, z)] = floor;
+					blocks[index(x, base + 2, z)] = floor;
+					blocks[index(x, base + 3, z)] = floor;
+
+					if (random.nextDouble() < 0.02) {
+						blocks[index(x, base + 3, z)] = GLOWSTONE;
+					}
+				}
+			}
+		}
+	}
+
+	private void fillLayer(int y, byte block) {
+		int start = index(0, y, 0);
+		for (int i = start; i < start + CHUNK_WIDTH * CHUNK_WIDTH; i++) {
+			blocks[i] = block;
+		}
+	}
+
+	private void fillDungeon(Dungeon dungeon, IteratableRectangle area, int base) {
+		area.forEach((x, z) -> {
+			byte[] column = TILE_COLUMNS[dungeon.getTile(x, z)];
+			int localX = x & (CHUNK_WIDTH - 1);
+			int localZ = z & (CHUNK_WIDTH - 1);
+			for (int y = 1; y < FLOOR_HEIGHT; y++) {
+				blocks[index(localX, base + y, localZ)] = column[y - 1];
+			}
+		});
+	}
+
+	/**
+	 * Every floor in its own band, then the ladders: from the lower floor's
+	 * ground through the ceiling up to the first block of the upper floor.
+	 */
+	private void fillStack(DungeonStack stack, IteratableRectangle area) {
+		for (int floor = 0; floor < stack.getFloorCount(); floor++) {
+			fillDungeon(stack.getFloor(floor), area, floor * FLOOR_HEIGHT);
+		}
+
+		for (int floor = 0; floor < stack.getFloorCount() - 1; floor++) {
+			int base = floor * FLOOR_HEIGHT;
+			int lowerFloor = floor;
+			area.forEach((x, z) -> {
+				int wall = stack.getLadder(lowerFloor, x, z);
+				if (wall < 0) {
+					return;
+				}
+
+				int localX = x & (CHUNK_WIDTH - 1);
+				int localZ = z & (CHUNK_WIDTH - 1);
+				for (int y = base + 1; y <= base + FLOOR_HEIGHT + 1; y++) {
+					blocks[index(localX, y, localZ)] = (byte) (LADDER + wall);
+				}
+			});
+		}
+	}
+
+	private static int index(int x, int y, int z) {
+		return (y * CHUNK_WIDTH + z) * CHUNK_WIDTH + x;
+	}
+
+	private static MaterialData[] createPalette() {
+		Door doorBottom = new Door(Material.DARK_OAK_DOOR);
+		Door doorTop = new Door(Material.DARK_OAK_DOOR);
+		doorTop.setTopHalf(true);
+
+		// a ladder faces away from its wall, dungeon y runs along world z
+		BlockFace[] ladderFacing = { BlockFace.NORTH, BlockFace.WEST, BlockFace.SOUTH, BlockFace.EAST };
+		Ladder[] ladders = new Ladder[ladderFacing.length];
+		for (int i = 0; i < ladders.length; i++) {
+			ladders[i] = new Ladder();
+			ladders[i].setFacingDirection(ladderFacing[i]);
+		}
+
+		return new MaterialData[] {
+			new MaterialData(Material.BEDROCK),
+			new MaterialData(Material.COBBLESTONE),
+			new MaterialData(Material.STONE),
+			new MaterialData(Material.MOSSY_COBBLESTONE),
+			new MaterialData(Material.GRAVEL),
+			new MaterialData(Material.GLOWSTONE),
+			new MaterialData(Material.GRASS),
+			new MaterialData(Material.AIR),
+			doorBottom,
+			doorTop,
+			ladders[0],
+			ladders[1],
+			ladders[2],
+			ladders[3]
+		};
+	}
+}
@@ -0,0 +1,213 @@
+package minelab.plugin;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import minelab.model.Dungeon;
+import minelab.utils.IteratableRectangle;
+
+/**
+ * A generated dungeon baked into chunk templates. Bounded dungeons are
+ * compiled up front, right after generation; dungeons too large for that
+ * (the infinite one) compile chunks on first use and keep them in an LRU
+ * cache. Chunks outside the dungeon share a few precompiled floors.
+ * Every compiled dungeon gets a new version number.
+ */
+public class CompiledDungeon {
+	public static final int CHUNK_WIDTH = ChunkTemplate.CHUNK_WIDTH;
+	// above this estimate, grids and templates, chunks are compiled lazily
+	public static final long MAX_PRECOMPILED_BYTES = 256L << 20;
+	public static final int LAZY_CACHE_SIZE = 4096;
+	// recompiled chunks are merged in once they are more than 1/n of all
+	public static final int MAX_RECOMPILED_FRACTION = 4;
+	public static final int SPAWN_X = 7;
+	public static final int SPAWN_Z = 7;
+
+	private static final int FLOOR_VARIANTS = 16;
+	private static final ChunkTemplate[] FLOORS = new ChunkTemplate[FLOOR_VARIANTS];
+	private static final AtomicLong VERSIONS = new AtomicLong();
+
+	static {
+		for (int i = 0; i < FLOOR_VARIANTS; i++) {
+			FLOORS[i] = ChunkTemplate.compileFloor(i, 1);
+		}
+	}
+
+	private final Dungeon dungeon;
+	private final long version = VERSIONS.incrementAndGet();
+	private final Map<Long, ChunkTemplate> chunks;
+	// chunks recompiled since the chunks were last copied, shadowing them
+	private final Map<Long, ChunkTemplate> recompiled;
+	private final boolean precompiled;
+	private final ChunkTemplate[] floors;
+	private final ChunkTemplate spawn;
+	private final int spawnChunkX = Math.floorDiv(SPAWN_X, CHUNK_WIDTH);
+	private final int spawnChunkZ = Math.floorDiv(SPAWN_Z, CHUNK_WIDTH);
+
+	private CompiledDungeon(Dungeon dungeon) {
+		this.dungeon = dungeon;
+		this.recompiled = Collections.emptyMap();
+
+		int floorCount = ChunkTemplate.getFloorCount(dungeon);
+		if (floorCount == 1) {
+			floors = FLOORS;
+		} else {
+			floors = new ChunkTemplate[FLOOR_VARIANTS];
+			for (int i = 0; i < FLOOR_VARIANTS; i++) {
+				floors[i] = ChunkTemplate.compileFloor(i, floorCount);
+			}
+		}
+
+		IteratableRectangle bounds = dungeon.getBounds();
+		precompiled = estimateBytes(bounds.width, bounds.height, floorCount) <= MAX_PRECOMPILED_BYTES;
+
+		if (precompiled) {
+			chunks = new HashMap<Long, ChunkTemplate>();
+			int minX = Math.floorDiv(bounds.x, CHUNK_WIDTH);
+			int minZ = Math.floorDiv(bounds.y, CHUNK_WIDTH);
+			int maxX = Math.floorDiv(bounds.x + bounds.width - 1, CHUNK_WIDTH);
+			int maxZ = Math.floorDiv(bounds.y + bounds.height - 1, CHUNK_WIDTH);
+			for (int cz = minZ; cz <= maxZ; cz++) {
+				for (int cx = minX; cx <= maxX; cx++) {
+					chunks.put(key(cx, cz), compileChunk(cx, cz));
+				}
+			}
+		} else {
+			chunks = new LinkedHashMap<Long, ChunkTemplate>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Long, ChunkTemplate> eldest) {
+					return size() > LAZY_CACHE_SIZE;
+				}
+			};
+		}
+
+		ChunkTemplate spawnTemplate = chunks.get(key(spawnChunkX, spawnChunkZ));
+		spawn = spawnTemplate != null ? spawnTemplate : ChunkTemplate.compile(dungeon, spawnChunkX, spawnChunkZ, true);
+	}
+
+	/**
+	 * Shares the templates of the chunks outside the changed tiles with the
+	 * dungeon compiled before, and compiles only the chunks over them. The
+	 * chunks recompiled so far are kept apart until they reach a fraction of
+	 * all chunks, so each recompile costs about the changed chunks and the
+	 * copy of all of them is spread over many.
+	 */
+	private CompiledDungeon(CompiledDungeon previous, Dungeon dungeon, IteratableRectangle changed) {
+		this.dungeon = dungeon;
+		this.floors = previous.floors;
+		this.precompiled = true;
+
+		Map<Long, ChunkTemplate> recompiled = new HashMap<Long, ChunkTemplate>(previous.recompiled);
+		IteratableRectangle area = changed.intersection(dungeon.getBounds());
+		for (int cz = Math.floorDiv(area.y, CHUNK_WIDTH); cz <= Math.floorDiv(area.y + area.height - 1, CHUNK_WIDTH); cz++) {
+			for (int cx = Math.floorDiv(area.x, CHUNK_WIDTH); cx <= Math.floorDiv(area.x + area.width - 1, CHUNK_WIDTH); cx++) {
+				recompiled.put(key(cx, cz), compileChunk(cx, cz));
+			}
+		}
+
+		if (recompiled.size() > previous.chunks.size() / MAX_RECOMPILED_FRACTION) {
+			Map<Long, ChunkTemplate> chunks = new HashMap<Long, ChunkTemplate>(previous.chunks);
+			chunks.putAll(recompiled);
+			this.chunks = chunks;
+			this.recompiled = Collections.emptyMap();
+		} else {
+			this.chunks = previous.chunks;
+			this.recompiled = recompiled;
+		}
+
+		ChunkTemplate spawnTemplate = recompiled.get(key(spawnChunkX, spawnChunkZ));
+		spawn = spawnTemplate != null ? spawnTemplate : previous.spawn;
+	}
+
+	public static CompiledDungeon compile(Dungeon dungeon) {
+		return new CompiledDungeon(dungeon);
+	}
+
+	/**
+	 * Compiles a dungeon that only differs from this one inside the changed
+	 * tiles. Unless this dungeon was compiled lazily or has another size,
+	 * only the chunks over those tiles are compiled again.
+	 */
+	public CompiledDungeon recompile(Dungeon changedDungeon, IteratableRectangle changed) {
+		if (!precompiled || !changedDungeon.getBounds().equals(dungeon.getBounds())
+			|| ChunkTemplate.getFloorCount(changedDungeon) != ChunkTemplate.getFloorCount(dungeon)) {
+			return compile(changedDungeon);
+		}
+		return new CompiledDungeon(this, changedDungeon, changed);
+	}
+
+	public ChunkTemplate getChunk(int cx, int cz) {
+		if (cx == spawnChunkX && cz == spawnChunkZ) {
+			return spawn;
+		}
+
+		long key = key(cx, cz);
+		if (precompiled) {
+			ChunkTemplate template = recompiled.get(key);
+			if (template == null) {
+				template = chunks.get(key);
+			}
+			return template != null ? template : floors[floorVariant(cx, cz)];
+		}
+
+		synchronized (chunks) {
+			ChunkTemplate template = chunks.get(key);
+			if (template == null) {
+				template = compileChunk(cx, cz);
+				chunks.put(key, template);
+			}
+			return template;
+		}
+	}
+
+	public Dungeon getDungeon() {
+		return dungeon;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Rough memory held by a precompiled dungeon of the given size: five
+	 * bytes per tile for the grids and one template per chunk.
+	 */
+	public static long estimateBytes(int width, int height, int floors) {
+		long chunks = ((long) width / CHUNK_WIDTH + 1) * ((long) height / CHUNK_WIDTH + 1);
+		long templateBytes = floors * ChunkTemplate.FLOOR_HEIGHT * CHUNK_WIDTH * CHUNK_WIDTH + 64;
+		return (long) width * height * floors * 5 + chunks * templateBytes;
+	}
+
+	public long getChunkHash(int cx, int cz) {
+		return getChunk(cx, cz).getHash();
+	}
+
+	/**
+	 * Just above the top of the spawn chunk, so players land on the roof of
+	 * a dungeon stack rather than inside one of its floors.
+	 */
+	public int getSpawnY() {
+		return spawn.getHeight() + 1;
+	}
+
+	private ChunkTemplate compileChunk(int cx, int cz) {
+		return ChunkTemplate.compile(dungeon, cx, cz, cx == spawnChunkX && cz == spawnChunkZ);
+	}
+
+	private static int floorVariant(int cx, int cz) {
+		int hash = cx * 31 + cz;
+		hash ^= hash >>> 16;
+		hash *= 0x45d9f3b;
+		hash ^= hash >>> 16;
+		return hash & (FLOOR_VARIANTS - 1);
+	}
+
+	static long key(int cx, int cz) {
+		return ((long) cx << 32) | (cz & 0xffffffffL);
+	}
+}
@@ -0,0 +1,108 @@
+package minelab.plugin;
+
+import java.util.concurrent.CompletableFuture;
+
+import minelab.utils.IteratableRectangle;
+
+/**
+ * A party's own dungeon, served in a square slot of chunks of the dungeon
+ * world. The dungeon is null until its generation has finished.
+ */
+public class DungeonInstance {
+	private final String party;
+	private final int slot;
+	private final int originChunkX;
+	private final int originChunkZ;
+	private final long estimatedBytes;
+	private volatile CompiledDungeon dungeon;
+	private volatile long lastUsed = System.currentTimeMillis();
+	private final CompletableFuture<DungeonInstance> ready = new CompletableFuture<DungeonInstance>();
+
+	DungeonInstance(String party, int slot, int originChunkX, int originChunkZ, long estimatedBytes) {
+		this.party = party;
+		this.slot = slot;
+		this.originChunkX = originChunkX;
+		this.originChunkZ = originChunkZ;
+		this.estimatedBytes = estimatedBytes;
+	}
+
+	/**
+	 * The template of a chunk given in world chunk coordinates, null while
+	 * the dungeon is still being generated.
+	 */
+	public ChunkTemplate getChunk(int cx, int cz) {
+		CompiledDungeon compiled = dungeon;
+		return compiled == null ? null : compiled.getChunk(cx - originChunkX, cz - originChunkZ);
+	}
+
+	public String getParty() {
+		return party;
+	}
+
+	int getSlot() {
+		return slot;
+	}
+
+	public int getOriginChunkX() {
+		return originChunkX;
+	}
+
+	public int getOriginChunkZ() {
+		return originChunkZ;
+	}
+
+	/**
+	 * The blocks of the whole slot, as dungeon tiles of the world.
+	 */
+	public IteratableRectangle getSlotBlocks() {
+		int size = InstanceManager.SLOT_CHUNKS * CompiledDungeon.CHUNK_WIDTH;
+		return new IteratableRectangle(originChunkX * CompiledDungeon.CHUNK_WIDTH, originChunkZ * CompiledDungeon.CHUNK_WIDTH,
+			size, size);
+	}
+
+	public int getSpawnX() {
+		return originChunkX * CompiledDungeon.CHUNK_WIDTH + CompiledDungeon.SPAWN_X;
+	}
+
+	public int getSpawnZ() {
+		return originChunkZ * CompiledDungeon.CHUNK_WIDTH + CompiledDungeon.SPAWN_Z;
+	}
+
+	public long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	public CompiledDungeon getDungeon() {
+		return dungeon;
+	}
+
+	void setDungeon(CompiledDungeon dungeon) {
+		this.dungeon = dungeon;
+		ready.complete(this);
+	}
+
+	void fail(Throwable error) {
+		ready.completeExceptionally(error);
+	}
+
+	/**
+	 * Completes once the dungeon has been generated, on the generating
+	 * thread.
+	 */
+	public CompletableFuture<DungeonInstance> whenReady() {
+		return ready;
+	}
+
+	public long getLastUsed() {
+		return lastUsed;
+	}
+
+	void touch() {
+		lastUsed = System.currentTimeMillis();
+	}
+
+	@Override
+	public String toString() {
+		return party + " at chunk " + originChunkX + "," + originChunkZ;
+	}
+}
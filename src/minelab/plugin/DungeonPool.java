@@ -0,0 +1,198 @@
+package minelab.plugin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import minelab.model.Dungeon;
+import minelab.model.DungeonType;
+
+/**
+ * Keeps a few generated and compiled dungeons ready for each configured type
+ * and size, so a renew only has to swap one in. A single low priority
+ * thread refills the emptiest queue whenever one is below capacity.
+ * Dungeons are only created right before they are generated.
+ */
+public class DungeonPool {
+	public static final long FAILURE_BACKOFF_MILLIS = 1000;
+
+	private final Map<Key, Deque<CompiledDungeon>> ready = new LinkedHashMap<Key, Deque<CompiledDungeon>>();
+	private final Function<Key, Dungeon> factory;
+	private final int capacity;
+	private final Logger log;
+	private final Thread worker;
+	private volatile boolean running = true;
+	private volatile long served;
+	private volatile long misses;
+
+	public DungeonPool(Collection<Key> keys, int capacity, Function<Key, Dungeon> factory, Logger log) {
+		for (Key key : keys) {
+			ready.put(key, new ArrayDeque<CompiledDungeon>(capacity));
+		}
+		this.capacity = capacity;
+		this.factory = factory;
+		this.log = log;
+
+		worker = new Thread(this::refill, "Minelab-Pool");
+		worker.setDaemon(true);
+		worker.setPriority(Thread.MIN_PRIORITY);
+	}
+
+	public void start() {
+		worker.start();
+	}
+
+	public void shutdown() {
+		running = false;
+		worker.interrupt();
+	}
+
+	/**
+	 * Takes a ready dungeon of the given size, of a random type among the
+	 * ones available. Returns null if none is ready.
+	 */
+	public synchronized CompiledDungeon take(int width, int height, Random random) {
+		List<Deque<CompiledDungeon>> candidates = new ArrayList<Deque<CompiledDungeon>>();
+		for (Map.Entry<Key, Deque<CompiledDungeon>> entry : ready.entrySet()) {
+			if (entry.getKey().matches(width, height) && !entry.getValue().isEmpty()) {
+				candidates.add(entry.getValue());
+			}
+		}
+
+		if (candidates.isEmpty()) {
+			misses++;
+			return null;
+		}
+
+		CompiledDungeon dungeon = candidates.get(random.nextInt(candidates.size())).poll();
+		served++;
+		notifyAll();
+		return dungeon;
+	}
+
+	public synchronized int getReadyCount() {
+		int count = 0;
+		for (Deque<CompiledDungeon> queue : ready.values()) {
+			count += queue.size();
+		}
+		return count;
+	}
+
+	public int getCapacity() {
+		return capacity * ready.size();
+	}
+
+	public long getServed() {
+		return served;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	private void refill() {
+		while (running) {
+			Key key;
+			try {
+				key = nextToFill();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			try {
+				Dungeon dungeon = factory.apply(key);
+				CompiledDungeon compiled = CompiledDungeon.compile(dungeon.generate());
+				synchronized (this) {
+					ready.get(key).add(compiled);
+				}
+			} catch (CancellationException e) {
+				return;
+			} catch (RuntimeException e) {
+				log.log(Level.WARNING, "Could not pre-generate a " + key + " dungeon", e);
+				try {
+					Thread.sleep(FAILURE_BACKOFF_MILLIS);
+				} catch (InterruptedException interrupted) {
+					return;
+				}
+			}
+		}
+	}
+
+	private synchronized Key nextToFill() throws InterruptedException {
+		while (true) {
+			Key emptiest = null;
+			int fewest = capacity;
+			for (Map.Entry<Key, Deque<CompiledDungeon>> entry : ready.entrySet()) {
+				if (entry.getValue().size() < fewest) {
+					emptiest = entry.getKey();
+					fewest = entry.getValue().size();
+				}
+			}
+
+			if (emptiest != null) {
+				return emptiest;
+			}
+			wait();
+		}
+	}
+
+	/**
+	 * A type and size of dungeon. Sizes are padded to odd like the dungeons
+	 * themselves pad them.
+	 */
+	public static class Key {
+		private final DungeonType type;
+		private final int width;
+		private final int height;
+
+		public Key(DungeonType type, int width, int height) {
+			this.type = type;
+			this.width = width % 2 == 0 ? width + 1 : width;
+			this.height = height % 2 == 0 ? height + 1 : height;
+		}
+
+		public boolean matches(int width, int height) {
+			return new Key(type, width, height).equals(this);
+		}
+
+		public DungeonType getType() {
+			return type;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return type == other.type && width == other.width && height == other.height;
+		}
+
+		@Override
+		public int hashCode() {
+			return (type.hashCode() * 31 + width) * 31 + height;
+		}
+
+		@Override
+		public String toString() {
+			return type + " " + width + "x" + height;
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package minelab.plugin;
+
+import java.util.Map;
+
+/**
+ * Generation statistics published over JMX as minelab:type=GenerationStats.
+ */
+public interface GenerationStatsMXBean {
+	public long getTotalRuns();
+	public double getAverageMillis();
+	public Map<String, Double> getAveragePhaseMillis();
+	public String[] getRecentRuns();
+	public String[] getLatestPhases();
+}
@@ -0,0 +1,97 @@
+package minelab.plugin;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import minelab.model.GenerationHistory;
+import minelab.model.GenerationStats;
+import minelab.model.GenerationStats.PhaseStats;
+
+public class GenerationStatsMonitor implements GenerationStatsMXBean {
+	public static final String OBJECT_NAME = "minelab:type=GenerationStats";
+
+	private final GenerationHistory history;
+
+	public GenerationStatsMonitor(GenerationHistory history) {
+		this.history = history;
+	}
+
+	public void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (server.isRegistered(name)) {
+			server.unregisterMBean(name);
+		}
+		server.registerMBean(this, name);
+	}
+
+	public void unregister() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (server.isRegistered(name)) {
+			server.unregisterMBean(name);
+		}
+	}
+
+	public long getTotalRuns() {
+		return history.getTotalRuns();
+	}
+
+	public double getAverageMillis() {
+		List<GenerationStats> recent = history.getRecent();
+		if (recent.isEmpty()) {
+			return 0;
+		}
+
+		long total = 0;
+		for (GenerationStats stats : recent) {
+			total += stats.getTotalNanos();
+		}
+		return total / 1e6 / recent.size();
+	}
+
+	public Map<String, Double> getAveragePhaseMillis() {
+		Map<String, Double> totals = new LinkedHashMap<String, Double>();
+		Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+		for (GenerationStats stats : history.getRecent()) {
+			for (PhaseStats phase : stats.getPhases()) {
+				totals.merge(phase.getName(), phase.getNanos() / 1e6, Double::sum);
+				counts.merge(phase.getName(), 1, Integer::sum);
+			}
+		}
+
+		for (Map.Entry<String, Double> entry : totals.entrySet()) {
+			entry.setValue(entry.getValue() / counts.get(entry.getKey()));
+		}
+		return totals;
+	}
+
+	public String[] getRecentRuns() {
+		List<GenerationStats> recent = history.getRecent();
+		String[] runs = new String[recent.size()];
+		for (int i = 0; i < runs.length; i++) {
+			runs[i] = recent.get(i).toString();
+		}
+		return runs;
+	}
+
+	public String[] getLatestPhases() {
+		GenerationStats latest = history.getLatest();
+		if (latest == null) {
+			return new String[0];
+		}
+
+		List<PhaseStats> phases = latest.getPhases();
+		String[] lines = new String[phases.size()];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = phases.get(i).toString();
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,235 @@
+package minelab.plugin;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import minelab.model.BasicDungeon;
+import minelab.model.Dungeon;
+import minelab.model.DungeonType;
+
+/**
+ * Gives every party its own dungeon in a slot of the dungeon world. Slots
+ * are squares of {@link #SLOT_CHUNKS} chunks laid out in the negative
+ * quadrant, away from the shared dungeon which starts at the origin. An
+ * infinite dungeon covers the slots, so there are no instances while one
+ * is installed.
+ *
+ * Instances are kept in least recently used order. When a new one would
+ * exceed the memory budget, the oldest instances without players in them
+ * are evicted and their slots reused. At most a fixed number of instances
+ * are generated at the same time, the rest wait for a generator thread.
+ */
+public class InstanceManager {
+	public static final int SLOT_CHUNKS = 128;
+	public static final int SLOTS_PER_ROW = 64;
+	// dungeons must leave a border of stone to the next slot
+	public static final int MAX_INSTANCE_SIZE = (SLOT_CHUNKS - 2) * CompiledDungeon.CHUNK_WIDTH;
+
+	private final Map<String, DungeonInstance> instances = new LinkedHashMap<String, DungeonInstance>(16, 0.75f, true);
+	private final Map<Integer, DungeonInstance> slots = new ConcurrentHashMap<Integer, DungeonInstance>();
+	private final BitSet usedSlots = new BitSet();
+	private final long memoryBudget;
+	private final ExecutorService generators;
+	private final DungeonPool pool;
+	private final Random random = new Random();
+	private final AtomicInteger generating = new AtomicInteger();
+	private long usedBytes;
+	private volatile long evictions;
+
+	public InstanceManager(long memoryBudget, int maxConcurrentGenerations, DungeonPool pool) {
+		this.memoryBudget = memoryBudget;
+		this.pool = pool;
+		AtomicInteger threads = new AtomicInteger();
+		generators = Executors.newFixedThreadPool(Math.max(1, maxConcurrentGenerations), (runnable) -> {
+			Thread thread = new Thread(runnable, "Minelab-Instance-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * The party's instance, generating one if it has none. Evicts idle
+	 * instances to make room; fails if the budget is taken up by instances
+	 * that have players in them. Must be called on the main thread, the
+	 * future completes on a generator thread.
+	 */
+	public synchronized CompletableFuture<DungeonInstance> open(String party, int width, int height, Collection<? extends Player> players) {
+		DungeonInstance existing = instances.get(party);
+		if (existing != null) {
+			existing.touch();
+			return existing.whenReady();
+		}
+
+		if (Math.min(width, height) < BasicDungeon.MIN_SIZE || Math.max(width, height) > MAX_INSTANCE_SIZE) {
+			throw new IllegalArgumentException("Instances must be " + BasicDungeon.MIN_SIZE + " to " + MAX_INSTANCE_SIZE
+				+ " tiles wide and high");
+		}
+
+		long bytes = CompiledDungeon.estimateBytes(width, height, 1);
+		if (!makeRoom(bytes, players)) {
+			throw new IllegalStateException("No room for another dungeon instance, all instances are in use");
+		}
+
+		int slot = usedSlots.nextClearBit(0);
+		usedSlots.set(slot);
+		DungeonInstance instance = new DungeonInstance(party, slot,
+			-SLOT_CHUNKS * (1 + slot % SLOTS_PER_ROW), -SLOT_CHUNKS * (1 + slot / SLOTS_PER_ROW), bytes);
+		instances.put(party, instance);
+		slots.put(slot, instance);
+		usedBytes += bytes;
+
+		generating.incrementAndGet();
+		generators.execute(() -> {
+			try {
+				CompiledDungeon compiled = pool.take(width, height, random);
+				if (compiled == null) {
+					DungeonType[] types = DungeonType.values();
+					Dungeon dungeon = Main.createDungeon(types[random.nextInt(types.length)], width, height);
+					compiled = CompiledDungeon.compile(dungeon.generate());
+				}
+				instance.setDungeon(compiled);
+			} catch (Throwable e) {
+				discard(instance);
+				instance.fail(e);
+			} finally {
+				generating.decrementAndGet();
+			}
+		});
+		return instance.whenReady();
+	}
+
+	/**
+	 * Evicts least recently used idle instances until the bytes fit in the
+	 * budget. Instances still being generated are never evicted.
+	 */
+	private boolean makeRoom(long bytes, Collection<? extends Player> players) {
+		Iterator<DungeonInstance> eldest = instances.values().iterator();
+		while (usedBytes + bytes > memoryBudget && eldest.hasNext()) {
+			DungeonInstance instance = eldest.next();
+			if (instance.getDungeon() == null || isOccupied(instance, players)) {
+				continue;
+			}
+
+			eldest.remove();
+			release(instance);
+			evictions++;
+		}
+		return usedBytes + bytes <= memoryBudget;
+	}
+
+	private boolean isOccupied(DungeonInstance instance, Collection<? extends Player> players) {
+		for (Player player : players) {
+			Location location = player.getLocation();
+			DungeonInstance at = getInstanceAt(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+			if (at == instance) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public synchronized boolean close(String party) {
+		DungeonInstance instance = instances.remove(party);
+		if (instance == null) {
+			return false;
+		}
+		release(instance);
+		return true;
+	}
+
+	/**
+	 * Closes every instance, returns how many were open.
+	 */
+	public synchronized int closeAll() {
+		int closed = instances.size();
+		for (DungeonInstance instance : instances.values()) {
+			release(instance);
+		}
+		instances.clear();
+		return closed;
+	}
+
+	private synchronized void discard(DungeonInstance instance) {
+		if (instances.remove(instance.getParty(), instance)) {
+			release(instance);
+		}
+	}
+
+	private void release(DungeonInstance instance) {
+		slots.remove(instance.getSlot());
+		usedSlots.clear(instance.getSlot());
+		usedBytes -= instance.getEstimatedBytes();
+	}
+
+	/**
+	 * The instance whose slot contains the chunk, or null. Called from
+	 * chunk generation, which may run off the main thread.
+	 */
+	public DungeonInstance getInstanceAt(int cx, int cz) {
+		if (cx >= 0 || cz >= 0) {
+			return null;
+		}
+
+		int column = -Math.floorDiv(cx, SLOT_CHUNKS) - 1;
+		int row = -Math.floorDiv(cz, SLOT_CHUNKS) - 1;
+		if (column >= SLOTS_PER_ROW) {
+			return null;
+		}
+		return slots.get(row * SLOTS_PER_ROW + column);
+	}
+
+	/**
+	 * The template an instance serves for the chunk, null if the chunk is
+	 * not in a ready instance.
+	 */
+	public ChunkTemplate getChunk(int cx, int cz) {
+		DungeonInstance instance = getInstanceAt(cx, cz);
+		return instance == null ? null : instance.getChunk(cx, cz);
+	}
+
+	public synchronized DungeonInstance get(String party) {
+		return instances.get(party);
+	}
+
+	public synchronized List<DungeonInstance> getInstances() {
+		return new ArrayList<DungeonInstance>(instances.values());
+	}
+
+	public synchronized int getInstanceCount() {
+		return instances.size();
+	}
+
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	public int getGenerating() {
+		return generating.get();
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public void shutdown() {
+		generators.shutdownNow();
+	}
+}
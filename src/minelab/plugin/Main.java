@@ -1,6 +1,18 @@
 package minelab.plugin;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+
+import javax.management.JMException;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
@@ -14,18 +26,54 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.WorldSaveEvent;
 import org.bukkit.generator.ChunkGenerator;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import minelab.model.BasicDungeon;
 import minelab.model.Dungeon;
+import minelab.model.DungeonSnapshot;
+import minelab.model.DungeonStack;
+import minelab.model.DungeonType;
+import minelab.model.GenerationHistory;
+import minelab.model.MappedDungeon;
+import minelab.model.PartitionedDungeon;
+import minelab.model.TiledDungeon;
 import minelab.model.WidePathDungeon;
+import minelab.utils.IteratableRectangle;
 
 
 public class Main extends JavaPlugin implements Listener {
 	private static World world = null;
+	private static ServedHashStore servedHashes = null;
 	public static int CHUNK_WIDTH = 16;
+	public static int INFINITE_TILE_SIZE = 129;
+	public static int INFINITE_TILE_CACHE = 64;
+	public static int MAX_FLOORS = 16;
+	public static int MAX_SIZE = 4096;
+	public static int PARTITION_SIZE = 512;
+	public static final String TICK_BUDGET_CONFIG = "regeneration.tick-budget-ms";
+	public static final String POOL_SIZES_CONFIG = "pool.sizes";
+	public static final String POOL_CAPACITY_CONFIG = "pool.capacity";
+	public static double DEFAULT_TICK_BUDGET = 5.0;
+	public static int DEFAULT_POOL_CAPACITY = 2;
+	public static final String INSTANCE_SIZE_CONFIG = "instances.size";
+	public static final String INSTANCE_BUDGET_CONFIG = "instances.memory-budget-mb";
+	public static final String INSTANCE_GENERATIONS_CONFIG = "instances.max-concurrent-generations";
+	public static int DEFAULT_INSTANCE_SIZE = 55;
+	public static int DEFAULT_INSTANCE_BUDGET = 256;
+	public static int DEFAULT_INSTANCE_GENERATIONS = 2;
+	public static final String WORLD_NAME = "dungeon";
+	public static final String SNAPSHOT_SUFFIX = ".mlab";
+	public static final String SERVED_HASHES_SUFFIX = ".hashes";
 	private static Random random = new Random();
+	private static long savedVersion;
+	private AsyncDungeonGenerator asyncGenerator;
+	private GenerationStatsMonitor statsMonitor;
+	private ChunkRegenerationScheduler regenerationScheduler;
+	private DungeonPool dungeonPool;
+	private InstanceManager instanceManager;
 	
 	@Override
 	public boolean onCommand(CommandSender sender, Command cmd, String label, String[] args) {
@@ -40,45 +88,417 @@ public class Main extends JavaPlugin implements Listener {
 		}
 		
 		if(cmd.getName().equalsIgnoreCase("renew")){
+			if (args != null && args.length >= 1 && args[0].equalsIgnoreCase("cancel")) {
+				if (asyncGenerator.cancel()) {
+					sender.sendMessage("Cancelling dungeon generation");
+				} else {
+					sender.sendMessage("No dungeon is being generated");
+				}
+				return true;
+			}
+			
+			if (args != null && args.length >= 1 && args[0].equalsIgnoreCase("area")) {
+				IteratableRectangle area;
+				try {
+					area = new IteratableRectangle(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+						Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+				} catch (RuntimeException e) {
+					sender.sendMessage("Usage: /renew area <x> <z> <width> <height>");
+					return true;
+				}
+				renewArea(sender, area);
+				return true;
+			}
+			
+			if (args != null && args.length >= 1 && args[0].equalsIgnoreCase("infinite")) {
+				renew(sender, new TiledDungeon(getWorld().getSeed(), INFINITE_TILE_SIZE, INFINITE_TILE_CACHE));
+				return true;
+			}
+			
 			int width = 55;
 			int height = 55;
+			int floors = 1;
 			
 			if (args != null) {
 				if (args.length >= 2) {
 					try {
 						width = Integer.parseInt(args[0]);
 						height = Integer.parseInt(args[1]);
+						if (args.length >= 3) {
+							floors = Math.max(1, Math.min(MAX_FLOORS, Integer.parseInt(args[2])));
+						}
 					} catch (Exception e) {
 						sender.sendMessage("Arguments error, using random width and height");
 					}
 				}
 			}
 			
-			Dungeon[] dungeonGenerators = new Dungeon[]{
-				new BasicDungeon(width, height),
-				new WidePathDungeon(width, height)
-			};
+			if (Math.min(width, height) < BasicDungeon.MIN_SIZE || Math.max(width, height) > MAX_SIZE) {
+				sender.sendMessage("Dungeons must be " + BasicDungeon.MIN_SIZE + " to " + MAX_SIZE + " tiles wide and high");
+				return true;
+			}
+			
+			if (floors > 1) {
+				DungeonType[] types = DungeonType.values();
+				renew(sender, new DungeonStack(types[random.nextInt(types.length)], width, height, floors));
+				return true;
+			}
+			
+			CompiledDungeon pooled = dungeonPool.take(width, height, random);
+			if (pooled != null) {
+				install(sender, pooled, System.currentTimeMillis());
+				return true;
+			}
+			
+			DungeonType[] types = DungeonType.values();
+			renew(sender, createDungeon(types[random.nextInt(types.length)], width, height));
+			return true;
+		}
+		
+		if(cmd.getName().equalsIgnoreCase("instance")){
+			if (!(sender instanceof Player)) {
+				sender.sendMessage("Only players can enter an instance");
+				return true;
+			}
 			
-			ChunkGenerator generator = world.getGenerator();
-			if (generator instanceof DungeonChunkGenerator) {
-				Dungeon dungeon = dungeonGenerators[random.nextInt(dungeonGenerators.length)];
-				((DungeonChunkGenerator) generator).setDungeon(dungeon.generate());
+			Player player = (Player) sender;
+			if (args != null && args.length >= 1 && args[0].equalsIgnoreCase("leave")) {
+				player.teleport(getWorld().getSpawnLocation());
+				return true;
 			}
-			regenerateLoadedChunks(world);
+			
+			String party = args != null && args.length >= 1 ? args[0] : player.getName();
+			int size = getConfig().getInt(INSTANCE_SIZE_CONFIG);
+			int width = size;
+			int height = size;
+			if (args != null && args.length >= 3) {
+				try {
+					width = Integer.parseInt(args[1]);
+					height = Integer.parseInt(args[2]);
+				} catch (NumberFormatException e) {
+					sender.sendMessage("Arguments error, using the default instance size");
+				}
+			}
+			
+			enterInstance(player, party, width, height);
 			return true;
 		}
 		
+		if(cmd.getName().equalsIgnoreCase("minelab")){
+			if (args != null && args.length >= 1 && args[0].equalsIgnoreCase("stats")) {
+				sendStats(sender);
+				return true;
+			}
+			return false;
+		}
+		
 		return false;
 	}
 	
+	private void sendStats(CommandSender sender) {
+		String[] runs = statsMonitor.getRecentRuns();
+		if (runs.length == 0) {
+			sender.sendMessage("No dungeon has been generated yet");
+			sendRegenerationStats(sender);
+			return;
+		}
+		
+		sender.sendMessage("Generated " + statsMonitor.getTotalRuns() + " dungeons, recent average "
+			+ String.format("%.1f", statsMonitor.getAverageMillis()) + "ms");
+		sender.sendMessage("Latest: " + runs[0]);
+		for (String phase : statsMonitor.getLatestPhases()) {
+			sender.sendMessage("  " + phase);
+		}
+		for (int i = 1; i < Math.min(runs.length, 5); i++) {
+			sender.sendMessage(runs[i]);
+		}
+		sendRegenerationStats(sender);
+	}
+	
+	private void enterInstance(Player player, String party, int width, int height) {
+		World world = getWorld();
+		ChunkGenerator generator = world.getGenerator();
+		if (!(generator instanceof DungeonChunkGenerator)) {
+			player.sendMessage("The dungeon world is not using the dungeon generator");
+			return;
+		}
+		if (((DungeonChunkGenerator) generator).getDungeon() instanceof TiledDungeon) {
+			player.sendMessage("There are no instances while the dungeon is infinite, it covers their slots");
+			return;
+		}
+		((DungeonChunkGenerator) generator).setInstanceManager(instanceManager);
+		
+		CompletableFuture<DungeonInstance> ready;
+		try {
+			ready = instanceManager.open(party, width, height, world.getPlayers());
+		} catch (RuntimeException e) {
+			player.sendMessage(e.getMessage());
+			return;
+		}
+		
+		if (!ready.isDone()) {
+			player.sendMessage("Generating the dungeon of " + party);
+		}
+		ready.whenComplete((instance, failure) -> runOnMainThread(() -> {
+			if (failure != null) {
+				getLogger().log(Level.SEVERE, "Instance generation failed", failure);
+				player.sendMessage("Instance generation failed: " + failure.getMessage());
+				return;
+			}
+			
+			if (instanceManager.get(party) != instance) {
+				player.sendMessage("The dungeon of " + party + " was closed meanwhile");
+				return;
+			}
+			
+			// the slot may still hold chunks of the instance evicted from it
+			regenerationScheduler.enqueueLoadedChunks(world, (DungeonChunkGenerator) generator, instance.getSlotBlocks());
+			player.teleport(new Location(world, instance.getSpawnX(), instance.getDungeon().getSpawnY(), instance.getSpawnZ()));
+		}));
+	}
+	
+	private void sendRegenerationStats(CommandSender sender) {
+		sender.sendMessage("Instances: " + instanceManager.getInstanceCount() + " open, "
+			+ instanceManager.getGenerating() + " generating, "
+			+ (instanceManager.getUsedBytes() >> 20) + "/" + (instanceManager.getMemoryBudget() >> 20) + "MB, "
+			+ instanceManager.getEvictions() + " evicted");
+		sender.sendMessage("Dungeon pool: " + dungeonPool.getReadyCount() + "/" + dungeonPool.getCapacity() + " ready, "
+			+ dungeonPool.getServed() + " served, " + dungeonPool.getMisses() + " missed");
+
+		ChunkRegenerationScheduler scheduler = regenerationScheduler;
+		sender.sendMessage("Chunk regeneration: " + scheduler.getPendingChunks() + " pending, "
+			+ scheduler.getRegeneratedChunks() + " regenerated, " + scheduler.getSkippedChunks() + " skipped, "
+			+ scheduler.getUnchangedChunks() + " unchanged, last tick "
+			+ String.format("%.1f", scheduler.getLastTickMillis()) + "ms, max "
+			+ String.format("%.1f", scheduler.getMaxTickMillis()) + "ms, budget "
+			+ String.format("%.1f", scheduler.getTickBudgetMillis()) + "ms");
+	}
+	
+	private void renew(CommandSender sender, Dungeon dungeon) {
+		ChunkGenerator generator = getWorld().getGenerator();
+		if (!(generator instanceof DungeonChunkGenerator)) {
+			sender.sendMessage("The dungeon world is not using the dungeon generator");
+			return;
+		}
+		
+		long start = System.currentTimeMillis();
+		if (dungeon instanceof TiledDungeon) {
+			sender.sendMessage("Switching to an infinite dungeon");
+		} else if (dungeon instanceof DungeonStack) {
+			IteratableRectangle bounds = dungeon.getBounds();
+			sender.sendMessage("Generating a " + bounds.width + "x" + bounds.height + " dungeon with "
+				+ ((DungeonStack) dungeon).getFloorCount() + " floors");
+		} else {
+			IteratableRectangle bounds = dungeon.getBounds();
+			sender.sendMessage("Generating a " + bounds.width + "x" + bounds.height + " dungeon");
+		}
+		
+		asyncGenerator.generate(dungeon, (d, phase) -> {
+			runOnMainThread(() -> sender.sendMessage("Generating: " + phase));
+		}).thenApply(CompiledDungeon::compile).whenComplete((compiled, failure) -> runOnMainThread(() -> {
+			Throwable error = failure instanceof CompletionException ? failure.getCause() : failure;
+			if (error instanceof CancellationException) {
+				sender.sendMessage("Dungeon generation cancelled");
+				return;
+			}
+			
+			if (error != null) {
+				getLogger().log(Level.SEVERE, "Dungeon generation failed", error);
+				sender.sendMessage("Dungeon generation failed: " + error.getMessage());
+				return;
+			}
+			
+			install(sender, compiled, start);
+		}));
+	}
+	
+	/**
+	 * Regenerates an area of the current dungeon, in blocks, on a copy of
+	 * it. Only the chunks over the tiles that changed are compiled again and
+	 * queued for regeneration.
+	 */
+	private void renewArea(CommandSender sender, IteratableRectangle area) {
+		ChunkGenerator generator = getWorld().getGenerator();
+		if (!(generator instanceof DungeonChunkGenerator)) {
+			sender.sendMessage("The dungeon world is not using the dungeon generator");
+			return;
+		}
+		
+		DungeonChunkGenerator dungeonGenerator = (DungeonChunkGenerator) generator;
+		CompiledDungeon current = dungeonGenerator.getCompiledDungeon();
+		if (!AsyncDungeonGenerator.canRegenerate(current.getDungeon())) {
+			sender.sendMessage("Only single floor dungeons can be renewed in part");
+			return;
+		}
+		
+		long start = System.currentTimeMillis();
+		sender.sendMessage("Regenerating " + area.width + "x" + area.height + " blocks at " + area.x + ", " + area.y);
+		IteratableRectangle[] changed = new IteratableRectangle[1];
+		asyncGenerator.regenerate(current.getDungeon(), area, random.nextLong(), (d, phase) -> {
+			runOnMainThread(() -> sender.sendMessage("Regenerating: " + phase));
+		}).thenApply((regeneration) -> {
+			changed[0] = regeneration.getChanged();
+			return current.recompile(regeneration.getDungeon(), regeneration.getChanged());
+		}).whenComplete((compiled, failure) -> runOnMainThread(() -> {
+			Throwable error = failure instanceof CompletionException ? failure.getCause() : failure;
+			if (error instanceof CancellationException) {
+				sender.sendMessage("Dungeon generation cancelled");
+				return;
+			}
+			
+			if (error instanceof IllegalArgumentException) {
+				sender.sendMessage(error.getMessage());
+				return;
+			}
+			
+			if (error != null) {
+				getLogger().log(Level.SEVERE, "Dungeon generation failed", error);
+				sender.sendMessage("Dungeon generation failed: " + error.getMessage());
+				return;
+			}
+			
+			// installing would undo a dungeon swapped in meanwhile
+			if (dungeonGenerator.getCompiledDungeon() != current) {
+				sender.sendMessage("The dungeon was renewed meanwhile, dropping the regenerated area");
+				return;
+			}
+			
+			install(sender, compiled, start, changed[0]);
+		}));
+	}
+	
+	private void install(CommandSender sender, CompiledDungeon compiled, long start) {
+		install(sender, compiled, start, null);
+	}
+	
+	/**
+	 * Swaps in a compiled dungeon and queues the loaded chunks to check,
+	 * only those over the changed tiles if given. Must be called on the main
+	 * thread.
+	 */
+	private void install(CommandSender sender, CompiledDungeon compiled, long start, IteratableRectangle changedTiles) {
+		ChunkGenerator generator = getWorld().getGenerator();
+		if (!(generator instanceof DungeonChunkGenerator)) {
+			sender.sendMessage("The dungeon world is not using the dungeon generator");
+			return;
+		}
+		
+		((DungeonChunkGenerator) generator).setCompiledDungeon(compiled);
+		world.setSpawnLocation(CompiledDungeon.SPAWN_X, compiled.getSpawnY(), CompiledDungeon.SPAWN_Z);
+		if (compiled.getDungeon() instanceof TiledDungeon) {
+			closeInstances(sender);
+		}
+		Bukkit.getScheduler().runTaskAsynchronously(this, () -> saveSnapshot(compiled.getDungeon(), compiled.getVersion()));
+		int changed = changedTiles == null ? regenerateLoadedChunks(world)
+			: regenerationScheduler.enqueueLoadedChunks(world, (DungeonChunkGenerator) generator, changedTiles);
+		sender.sendMessage("Dungeon renewed in " + (System.currentTimeMillis() - start) + "ms, version "
+			+ compiled.getVersion() + ", " + changed + " loaded chunks queued");
+	}
+	
+	/**
+	 * The infinite dungeon covers the instance slots: players in instances
+	 * are sent to the spawn and every instance is closed.
+	 */
+	private void closeInstances(CommandSender sender) {
+		for (Player player : world.getPlayers()) {
+			Location location = player.getLocation();
+			if (instanceManager.getInstanceAt(location.getBlockX() >> 4, location.getBlockZ() >> 4) != null) {
+				player.teleport(world.getSpawnLocation());
+			}
+		}
+		
+		int closed = instanceManager.closeAll();
+		if (closed > 0) {
+			sender.sendMessage("Closed " + closed + " instances, the infinite dungeon covers their slots");
+		}
+	}
+	
+	/**
+	 * Creates, without generating, a dungeon of the given type. Big basic
+	 * dungeons are generated in sectors on every core.
+	 */
+	public static Dungeon createDungeon(DungeonType type, int width, int height) {
+		if (type == DungeonType.BASIC && Math.max(width, height) > PARTITION_SIZE) {
+			return new PartitionedDungeon(width, height);
+		}
+		return type.create(width, height);
+	}
+	
+	private void runOnMainThread(Runnable task) {
+		if (isEnabled()) {
+			Bukkit.getScheduler().runTask(this, task);
+		}
+	}
+	
+	/**
+	 * The dungeon of the last run, mapped from its snapshot, or a new one
+	 * which is saved right away so the next start finds the same layout.
+	 */
 	public static Dungeon getDungeon() {
-		return (new WidePathDungeon(65, 65)).generate();
+		File file = getSnapshotFile();
+		if (file.isFile()) {
+			try {
+				MappedDungeon dungeon = DungeonSnapshot.map(file);
+				Bukkit.getLogger().info("[Minelab] Loaded a " + dungeon.getWidth() + "x" + dungeon.getHeight() + " "
+					+ dungeon.getType() + " from " + file);
+				return dungeon;
+			} catch (IOException e) {
+				Bukkit.getLogger().log(Level.WARNING, "[Minelab] Could not load " + file + ", generating a new dungeon", e);
+			}
+		}
+		
+		BasicDungeon dungeon = new WidePathDungeon(65, 65);
+		dungeon.generate();
+		saveSnapshot(dungeon, 0);
+		return dungeon;
+	}
+	
+	/**
+	 * Next to the world folder, the world's chunks were generated from it.
+	 */
+	public static File getSnapshotFile() {
+		return new File(Bukkit.getWorldContainer(), WORLD_NAME + SNAPSHOT_SUFFIX);
+	}
+	
+	/**
+	 * Saves the snapshot of a dungeon installed in the world, unless a newer
+	 * one has been saved already. Only basic dungeons have snapshots; for
+	 * others the old snapshot is removed so a restart doesn't bring it back.
+	 */
+	private static synchronized void saveSnapshot(Dungeon dungeon, long version) {
+		if (version < savedVersion || dungeon instanceof MappedDungeon) {
+			return;
+		}
+		savedVersion = version;
+		
+		File file = getSnapshotFile();
+		try {
+			if (dungeon instanceof BasicDungeon) {
+				DungeonSnapshot.save(dungeon, ((BasicDungeon) dungeon).getSeed(), file);
+			} else {
+				Files.deleteIfExists(file.toPath());
+			}
+		} catch (IOException e) {
+			Bukkit.getLogger().log(Level.WARNING, "[Minelab] Could not save " + file, e);
+		}
+	}
+	
+	/**
+	 * Shared by every generator of the dungeon world, kept in a folder next
+	 * to the world folder so chunks saved by an earlier run are only stale
+	 * if the dungeon they were generated from was replaced.
+	 */
+	public static synchronized ServedHashStore getServedHashes() {
+		if (servedHashes == null) {
+			servedHashes = new ServedHashStore(new File(Bukkit.getWorldContainer(), WORLD_NAME + SERVED_HASHES_SUFFIX));
+		}
+		return servedHashes;
 	}
 	
 	public static World getWorld() {
         if (world == null) {
-        	WorldCreator wc = new WorldCreator("dungeon");
-        	wc.generator(new DungeonChunkGenerator(getDungeon()));
+        	WorldCreator wc = new WorldCreator(WORLD_NAME);
+        	wc.generator(new DungeonChunkGenerator(getDungeon(), getServedHashes()));
         	world = Bukkit.getServer().createWorld(wc);
         }
 
@@ -88,17 +508,102 @@ public class Main extends JavaPlugin implements Listener {
 	public void onEnable()
     {
 		getLogger().info("[MinelabPlugin] enabled");  
+		getConfig().addDefault(TICK_BUDGET_CONFIG, DEFAULT_TICK_BUDGET);
+		getConfig().addDefault(POOL_SIZES_CONFIG, Arrays.asList("55x55"));
+		getConfig().addDefault(POOL_CAPACITY_CONFIG, DEFAULT_POOL_CAPACITY);
+		getConfig().addDefault(INSTANCE_SIZE_CONFIG, DEFAULT_INSTANCE_SIZE);
+		getConfig().addDefault(INSTANCE_BUDGET_CONFIG, DEFAULT_INSTANCE_BUDGET);
+		getConfig().addDefault(INSTANCE_GENERATIONS_CONFIG, DEFAULT_INSTANCE_GENERATIONS);
+		getConfig().options().copyDefaults(true);
+		saveConfig();
+		
+		asyncGenerator = new AsyncDungeonGenerator();
+		statsMonitor = new GenerationStatsMonitor(GenerationHistory.getInstance());
+		regenerationScheduler = new ChunkRegenerationScheduler(getConfig().getDouble(TICK_BUDGET_CONFIG));
+		regenerationScheduler.runTaskTimer(this, 1, 1);
+		dungeonPool = new DungeonPool(readPoolKeys(), getConfig().getInt(POOL_CAPACITY_CONFIG),
+			(key) -> createDungeon(key.getType(), key.getWidth(), key.getHeight()), getLogger());
+		dungeonPool.start();
+		instanceManager = new InstanceManager((long) getConfig().getInt(INSTANCE_BUDGET_CONFIG) << 20,
+			getConfig().getInt(INSTANCE_GENERATIONS_CONFIG), dungeonPool);
+		try {
+			statsMonitor.register();
+			regenerationScheduler.register();
+		} catch (JMException e) {
+			getLogger().log(Level.WARNING, "Could not register the minelab MBeans", e);
+		}
 		Bukkit.getServer().getPluginManager().registerEvents(this, this);
     }
 
+    /**
+     * One pool key per dungeon type for every "widthxheight" in the config.
+     */
+    private List<DungeonPool.Key> readPoolKeys() {
+    	List<DungeonPool.Key> keys = new ArrayList<DungeonPool.Key>();
+    	for (String size : getConfig().getStringList(POOL_SIZES_CONFIG)) {
+    		String[] parts = size.toLowerCase().split("x");
+    		try {
+    			int width = Integer.parseInt(parts[0].trim());
+    			int height = Integer.parseInt(parts[1].trim());
+    			for (DungeonType type : DungeonType.values()) {
+    				keys.add(new DungeonPool.Key(type, width, height));
+    			}
+    		} catch (RuntimeException e) {
+    			getLogger().warning("Ignoring pool size " + size + ", expected widthxheight");
+    		}
+    	}
+    	return keys;
+    }
+
     public void onDisable()
     {
+    	asyncGenerator.shutdown();
+    	dungeonPool.shutdown();
+    	instanceManager.shutdown();
+    	regenerationScheduler.cancel();
+    	getServedHashes().flushAndWait();
+    	try {
+    		statsMonitor.unregister();
+    		regenerationScheduler.unregister();
+    	} catch (JMException e) {
+    		getLogger().log(Level.WARNING, "Could not unregister the minelab MBeans", e);
+    	}
     }
 
     @Override
     public ChunkGenerator getDefaultWorldGenerator(String worldName, String id)
     {
-        return new DungeonChunkGenerator(getDungeon());
+        return new DungeonChunkGenerator(getDungeon(), getServedHashes());
+    }
+    
+    /**
+     * Chunks loaded from disk may have been generated from an older dungeon
+     * or another instance. They are queued, and the budgeted regeneration
+     * ticks regenerate those that are stale, including chunks with no
+     * served hash, saved before the hashes were kept.
+     */
+    @EventHandler
+    public void onChunkLoad(ChunkLoadEvent event) {
+    	if (event.isNewChunk() || event.getWorld() != world) {
+    		return;
+    	}
+    	
+    	ChunkGenerator generator = world.getGenerator();
+    	if (generator instanceof DungeonChunkGenerator) {
+    		Chunk chunk = event.getChunk();
+    		regenerationScheduler.enqueueChunk(world, (DungeonChunkGenerator) generator, chunk.getX(), chunk.getZ());
+    	}
+    }
+    
+    /**
+     * The hashes are written with the chunks they describe, a crash loses
+     * at most what the world loses.
+     */
+    @EventHandler
+    public void onWorldSave(WorldSaveEvent event) {
+    	if (event.getWorld() == world) {
+    		getServedHashes().flush();
+    	}
     }
     
     @EventHandler(priority = EventPriority.HIGHEST)
@@ -107,18 +612,23 @@ public class Main extends JavaPlugin implements Listener {
     	World world = getWorld();
     	Location spawn = world.getSpawnLocation();
     	
-    	// regenerate
+    	// only chunks generated from an older dungeon are regenerated, usually none
     	regenerateLoadedChunks(world);
     	
     	getLogger().info("teleporting " + player.getDisplayName());
     	player.teleport(spawn);
     }
     
-    private void regenerateLoadedChunks(World world) {
-    	Chunk[] chunks = world.getLoadedChunks();
-    	for(int i=0; i<chunks.length; i++) {
-    		Chunk chunk = chunks[i];
-    		world.regenerateChunk(chunk.getX(), chunk.getZ());
+    /**
+     * Queues the loaded chunks, those that differ from the current dungeon
+     * are regenerated over the next ticks within the configured budget,
+     * nearest to players first. Returns the number of chunks queued.
+     */
+    private int regenerateLoadedChunks(World world) {
+    	ChunkGenerator generator = world.getGenerator();
+    	if (!(generator instanceof DungeonChunkGenerator)) {
+    		return 0;
     	}
+    	return regenerationScheduler.enqueueLoadedChunks(world, (DungeonChunkGenerator) generator);
     }
 }
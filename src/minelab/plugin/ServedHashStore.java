@@ -0,0 +1,244 @@
+package minelab.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+
+import org.bukkit.Bukkit;
+
+/**
+ * Hash of the template each chunk was last generated from, kept in region
+ * files of {@link #REGION_SIZE} x {@link #REGION_SIZE} chunks like the world
+ * itself. Only the most recently used regions stay in memory, so an
+ * infinite dungeon explored far and wide costs disk, not heap.
+ *
+ * <pre>
+ * long  hashes[REGION_SIZE * REGION_SIZE]   0 if never served, big endian
+ * </pre>
+ *
+ * Regions are written on a background thread from a copy taken when they
+ * are evicted or flushed, and read without holding the lock, so chunk
+ * generation never waits for another region's disk I/O.
+ */
+public class ServedHashStore {
+	public static final int REGION_SIZE = 32;
+	public static final int MAX_CACHED_REGIONS = 64;
+	public static final long NONE = 0;
+	public static final int FLUSH_TIMEOUT_SECONDS = 10;
+	private static final String PREFIX = "r.";
+	private static final String SUFFIX = ".hashes";
+
+	private final File directory;
+	private final ExecutorService writer;
+	private final Map<Long, Region> regions = new LinkedHashMap<Long, Region>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Region> eldest) {
+			if (size() <= MAX_CACHED_REGIONS) {
+				return false;
+			}
+			write(eldest.getKey(), eldest.getValue());
+			return true;
+		}
+	};
+	// copies waiting to be written, newer than the files
+	private final Map<Long, long[]> writing = new HashMap<Long, long[]>();
+	private long writesDone;
+
+	private static class Region {
+		final long[] hashes;
+		boolean dirty;
+
+		Region(long[] hashes) {
+			this.hashes = hashes;
+		}
+	}
+
+	public ServedHashStore(File directory) {
+		this.directory = directory;
+		writer = Executors.newSingleThreadExecutor((runnable) -> {
+			Thread thread = new Thread(runnable, "Minelab-Hashes");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * The hash served for a chunk, {@link #NONE} if it never was.
+	 */
+	public long get(int cx, int cz) {
+		Region region = getRegion(regionKey(cx, cz));
+		synchronized (this) {
+			return region.hashes[index(cx, cz)];
+		}
+	}
+
+	public void put(int cx, int cz, long hash) {
+		long key = regionKey(cx, cz);
+		int index = index(cx, cz);
+		while (true) {
+			Region region = getRegion(key);
+			synchronized (this) {
+				// an evicted region was copied already, change the cached one
+				if (regions.get(key) == region) {
+					if (region.hashes[index] != hash) {
+						region.hashes[index] = hash;
+						region.dirty = true;
+					}
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues the changed regions still in memory for writing.
+	 */
+	public synchronized void flush() {
+		for (Map.Entry<Long, Region> entry : regions.entrySet()) {
+			write(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Flushes and waits for every queued write, for when the server stops.
+	 */
+	public void flushAndWait() {
+		Future<?> done;
+		synchronized (this) {
+			flush();
+			done = writer.submit(() -> { });
+		}
+		try {
+			done.get(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (TimeoutException | ExecutionException e) {
+			Bukkit.getLogger().warning("[Minelab] Gave up waiting for " + directory + " to be written");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private Region getRegion(long key) {
+		while (true) {
+			long seen;
+			synchronized (this) {
+				Region region = getCached(key);
+				if (region != null) {
+					return region;
+				}
+				seen = writesDone;
+			}
+
+			long[] hashes = read(key);
+			synchronized (this) {
+				Region region = getCached(key);
+				if (region != null) {
+					return region;
+				}
+				// a write finished meanwhile may have replaced what was read
+				if (writesDone == seen) {
+					region = new Region(hashes);
+					regions.put(key, region);
+					return region;
+				}
+			}
+		}
+	}
+
+	private Region getCached(long key) {
+		Region region = regions.get(key);
+		if (region == null) {
+			long[] queued = writing.get(key);
+			if (queued != null) {
+				region = new Region(queued.clone());
+				regions.put(key, region);
+			}
+		}
+		return region;
+	}
+
+	private static long regionKey(int cx, int cz) {
+		return CompiledDungeon.key(Math.floorDiv(cx, REGION_SIZE), Math.floorDiv(cz, REGION_SIZE));
+	}
+
+	private static int index(int cx, int cz) {
+		return Math.floorMod(cz, REGION_SIZE) * REGION_SIZE + Math.floorMod(cx, REGION_SIZE);
+	}
+
+	private File getFile(long key) {
+		return new File(directory, PREFIX + (int) (key >> 32) + "." + (int) key + SUFFIX);
+	}
+
+	private long[] read(long key) {
+		long[] hashes = new long[REGION_SIZE * REGION_SIZE];
+		File file = getFile(key);
+		if (!file.isFile()) {
+			return hashes;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+			for (int i = 0; i < hashes.length; i++) {
+				hashes[i] = in.readLong();
+			}
+		} catch (IOException e) {
+			// the chunks of the region count as never served, so as stale
+			Bukkit.getLogger().log(Level.WARNING, "[Minelab] Could not read " + file, e);
+			return new long[REGION_SIZE * REGION_SIZE];
+		}
+		return hashes;
+	}
+
+	/**
+	 * Queues a copy of a changed region for writing. Called with the lock
+	 * held.
+	 */
+	private void write(long key, Region region) {
+		if (!region.dirty) {
+			return;
+		}
+		long[] hashes = region.hashes.clone();
+		region.dirty = false;
+		writing.put(key, hashes);
+		writer.execute(() -> {
+			writeFile(key, hashes);
+			synchronized (this) {
+				writing.remove(key, hashes);
+				writesDone++;
+			}
+		});
+	}
+
+	private void writeFile(long key, long[] hashes) {
+		File file = getFile(key);
+		Path target = file.toPath();
+		Path partial = target.resolveSibling(file.getName() + ".partial");
+		try {
+			Files.createDirectories(directory.toPath());
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial)))) {
+				for (long hash : hashes) {
+					out.writeLong(hash);
+				}
+			}
+			Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Bukkit.getLogger().log(Level.WARNING, "[Minelab] Could not write " + file, e);
+		}
+	}
+
+}
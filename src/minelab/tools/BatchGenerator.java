@@ -0,0 +1,190 @@
+package minelab.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+
+import minelab.model.BasicDungeon;
+import minelab.model.DungeonSnapshot;
+import minelab.model.DungeonType;
+import minelab.model.PartitionedDungeon;
+
+/**
+ * Generates dungeons without a server, for building content offline and
+ * measuring generator throughput.
+ *
+ * <pre>
+ * java -cp minelab.jar minelab.tools.BatchGenerator [options]
+ *   --type basic|wide_path|partitioned   (basic)
+ *   --size WIDTHxHEIGHT                  (255x255)
+ *   --count N                            (100)
+ *   --seed FIRST                         seeds FIRST .. FIRST + N - 1 (0)
+ *   --threads N                          (available processors)
+ *   --format none|ascii|png|snapshot     (none)
+ *   --scale PIXELS                       pixels per tile in png (4)
+ *   --out DIRECTORY                      (dungeons)
+ *   --verbose                            keep the generators' logging
+ * </pre>
+ */
+public class BatchGenerator {
+	private String type = "basic";
+	private int width = 255;
+	private int height = 255;
+	private int count = 100;
+	private long firstSeed = 0;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private String format = "none";
+	private int scale = 4;
+	private File out = new File("dungeons");
+	private boolean verbose;
+
+	public static void main(String[] args) throws Exception {
+		BatchGenerator generator = new BatchGenerator();
+		try {
+			generator.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("usage: BatchGenerator [--type basic|wide_path|partitioned] [--size WxH] [--count N] "
+				+ "[--seed FIRST] [--threads N] [--format none|ascii|png|snapshot] [--scale PIXELS] [--out DIR] [--verbose]");
+			System.exit(2);
+		}
+		generator.run();
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--verbose")) {
+				verbose = true;
+				continue;
+			}
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + arg);
+			}
+
+			String value = args[++i];
+			try {
+				switch (arg) {
+					case "--type": type = value.toLowerCase(Locale.ROOT); break;
+					case "--size":
+						String[] size = value.toLowerCase(Locale.ROOT).split("x");
+						width = Integer.parseInt(size[0]);
+						height = Integer.parseInt(size[size.length - 1]);
+						break;
+					case "--count": count = Integer.parseInt(value); break;
+					case "--seed": firstSeed = Long.parseLong(value); break;
+					case "--threads": threads = Integer.parseInt(value); break;
+					case "--format": format = value.toLowerCase(Locale.ROOT); break;
+					case "--scale": scale = Integer.parseInt(value); break;
+					case "--out": out = new File(value); break;
+					default: throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Not a number for " + arg + ": " + value);
+			}
+		}
+
+		if (!type.equals("partitioned")) {
+			DungeonType.valueOf(type.toUpperCase(Locale.ROOT));
+		}
+		if (!format.matches("none|ascii|png|snapshot")) {
+			throw new IllegalArgumentException("Unknown format " + format);
+		}
+		if (count < 1 || threads < 1 || scale < 1 || width < BasicDungeon.MIN_SIZE || height < BasicDungeon.MIN_SIZE) {
+			throw new IllegalArgumentException("Count, threads and scale must be positive and dungeons at least "
+				+ BasicDungeon.MIN_SIZE + "x" + BasicDungeon.MIN_SIZE);
+		}
+	}
+
+	private BasicDungeon create() {
+		if (type.equals("partitioned")) {
+			return new PartitionedDungeon(width, height);
+		}
+		return DungeonType.valueOf(type.toUpperCase(Locale.ROOT)).create(width, height);
+	}
+
+	private void run() throws Exception {
+		if (!verbose) {
+			Logger.getLogger("Minelab").setLevel(Level.WARNING);
+		}
+		if (!format.equals("none") && !out.isDirectory() && !out.mkdirs()) {
+			throw new IOException("Could not create " + out);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			long seed = firstSeed + i;
+			results.add(executor.submit(() -> generate(seed)));
+		}
+
+		long generationNanos = 0;
+		long slowest = 0;
+		try {
+			for (Future<Long> result : results) {
+				long nanos = result.get();
+				generationNanos += nanos;
+				slowest = Math.max(slowest, nanos);
+			}
+		} finally {
+			// a failed dungeon must not leave the pool keeping the JVM alive
+			executor.shutdownNow();
+		}
+		long wall = System.nanoTime() - start;
+
+		BasicDungeon sample = create();
+		long tiles = (long) sample.getWidth() * sample.getHeight() * count;
+		double seconds = wall / 1e9;
+		System.out.println(String.format(Locale.ROOT, "%d %s dungeons of %dx%d on %d threads in %.2fs",
+			count, type, sample.getWidth(), sample.getHeight(), threads, seconds));
+		System.out.println(String.format(Locale.ROOT, "%.1f dungeons/s, %.0f tiles/s, %.1fms per dungeon, slowest %.1fms",
+			count / seconds, tiles / seconds, generationNanos / 1e6 / count, slowest / 1e6));
+	}
+
+	/**
+	 * Generates and writes one dungeon, returns the generation time alone.
+	 */
+	private long generate(long seed) throws IOException {
+		BasicDungeon dungeon = create();
+		dungeon.setSeed(seed);
+		long start = System.nanoTime();
+		dungeon.generate();
+		long nanos = System.nanoTime() - start;
+
+		String name = type + "-" + dungeon.getWidth() + "x" + dungeon.getHeight() + "-" + seed;
+		switch (format) {
+			case "ascii":
+				try (Writer writer = Files.newBufferedWriter(new File(out, name + ".txt").toPath(), StandardCharsets.UTF_8)) {
+					writer.write(DungeonRenderer.toAscii(dungeon));
+				}
+				break;
+			case "png":
+				ImageIO.write(DungeonRenderer.toImage(dungeon, scale), "png", new File(out, name + ".png"));
+				break;
+			case "snapshot":
+				try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(new File(out, name + ".mlab")))) {
+					DungeonSnapshot.write(dungeon, seed, stream);
+				}
+				break;
+			default:
+				break;
+		}
+		return nanos;
+	}
+}
@@ -0,0 +1,49 @@
+package minelab.tools;
+
+import java.awt.image.BufferedImage;
+
+import minelab.model.Dungeon;
+import minelab.utils.IteratableRectangle;
+
+/**
+ * Previews of a generated dungeon, as text or as an image.
+ */
+public class DungeonRenderer {
+	// indexed by tile code
+	private static final char[] ASCII = { '#', '.', '+' };
+	private static final int[] COLORS = { 0x3a3a3a, 0xd8d0b8, 0x8b5a2b };
+
+	public static String toAscii(Dungeon dungeon) {
+		IteratableRectangle bounds = dungeon.getBounds();
+		StringBuilder text = new StringBuilder((bounds.width + 1) * bounds.height);
+		// row 0 on top, dungeon y runs along world z, so this is north up
+		for (int y = 0; y < bounds.height; y++) {
+			for (int x = 0; x < bounds.width; x++) {
+				text.append(ASCII[dungeon.getTile(bounds.x + x, bounds.y + y)]);
+			}
+			text.append('\n');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * One square of scale x scale pixels per tile.
+	 */
+	public static BufferedImage toImage(Dungeon dungeon, int scale) {
+		IteratableRectangle bounds = dungeon.getBounds();
+		BufferedImage image = new BufferedImage(bounds.width * scale, bounds.height * scale, BufferedImage.TYPE_INT_RGB);
+		int[] row = new int[bounds.width * scale];
+		for (int y = 0; y < bounds.height; y++) {
+			for (int x = 0; x < bounds.width; x++) {
+				int color = COLORS[dungeon.getTile(bounds.x + x, bounds.y + y)];
+				for (int i = 0; i < scale; i++) {
+					row[x * scale + i] = color;
+				}
+			}
+			for (int i = 0; i < scale; i++) {
+				image.setRGB(0, y * scale + i, row.length, 1, row, 0, row.length);
+			}
+		}
+		return image;
+	}
+}
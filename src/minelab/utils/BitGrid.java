@@ -0,0 +1,109 @@
+package minelab.utils;
+
+import java.util.Arrays;
+
+/**
+ * A width x height grid of bits stored row by row in longs, so whole rows
+ * can be combined and shifted a word at a time.
+ */
+public class BitGrid {
+	private final int width;
+	private final int height;
+	private final int wordsPerRow;
+	private final long lastWordMask;
+	private final long[] words;
+
+	public BitGrid(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.wordsPerRow = (width + 63) >>> 6;
+		this.lastWordMask = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+		this.words = new long[wordsPerRow * height];
+	}
+
+	public boolean get(int x, int y) {
+		return (words[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	public void set(int x, int y) {
+		words[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+	}
+
+	public void clear(int x, int y) {
+		words[y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
+	}
+
+	public void clear() {
+		Arrays.fill(words, 0);
+	}
+
+	public void and(BitGrid other) {
+		for (int i = 0; i < words.length; i++) {
+			words[i] &= other.words[i];
+		}
+	}
+
+	public void andNot(BitGrid other) {
+		for (int i = 0; i < words.length; i++) {
+			words[i] &= ~other.words[i];
+		}
+	}
+
+	/**
+	 * Grows every set bit into its 3x3 neighbourhood, clipped to the grid.
+	 */
+	public BitGrid dilate() {
+		BitGrid rows = new BitGrid(width, height);
+		for (int y = 0; y < height; y++) {
+			int row = y * wordsPerRow;
+			for (int w = 0; w < wordsPerRow; w++) {
+				long word = words[row + w];
+				long next = w + 1 < wordsPerRow ? words[row + w + 1] : 0;
+				long previous = w > 0 ? words[row + w - 1] : 0;
+				rows.words[row + w] = word | (word << 1) | (word >>> 1) | (next << 63) | (previous >>> 63);
+			}
+			rows.words[row + wordsPerRow - 1] &= lastWordMask;
+		}
+
+		BitGrid result = new BitGrid(width, height);
+		for (int y = 0; y < height; y++) {
+			int row = y * wordsPerRow;
+			for (int w = 0; w < wordsPerRow; w++) {
+				long word = rows.words[row + w];
+				if (y > 0) {
+					word |= rows.words[row - wordsPerRow + w];
+				}
+				if (y + 1 < height) {
+					word |= rows.words[row + wordsPerRow + w];
+				}
+				result.words[row + w] = word;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Visits every set bit, row by row.
+	 */
+	public void forEach(TileVisitor visitor) {
+		for (int y = 0; y < height; y++) {
+			int row = y * wordsPerRow;
+			for (int w = 0; w < wordsPerRow; w++) {
+				long word = words[row + w];
+				while (word != 0) {
+					int bit = Long.numberOfTrailingZeros(word);
+					visitor.visit((w << 6) + bit, y);
+					word &= word - 1;
+				}
+			}
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+}
@@ -5,6 +5,10 @@ public enum Direction {
 	
 	public static Vector[] CARDINAL = {getVector(NORTH), getVector(EAST), getVector(SOUTH), getVector(WEST)};
 	
+	// Integer offsets of CARDINAL, indexed the same way.
+	public static final int[] DX = {0, 1, 0, -1};
+	public static final int[] DY = {1, 0, -1, 0};
+	
 	public static Vector getVector(Direction direction) {
 		switch (direction) {
 			case NORTH: return new Vector(0, 1);
@@ -14,4 +18,27 @@ public enum Direction {
 			default: return null;
 		}
 	}
+	
+	/**
+	 * Whether stepping the given number of steps from (x, y) in the CARDINAL
+	 * direction with the given index stays inside a width x height area
+	 * anchored at the origin.
+	 */
+	public static boolean inBounds(int width, int height, int x, int y, int direction, int steps) {
+		int tx = x + DX[direction] * steps;
+		int ty = y + DY[direction] * steps;
+		return tx >= 0 && ty >= 0 && tx < width && ty < height;
+	}
+	
+	/**
+	 * Index of the n-th set bit of a direction mask.
+	 */
+	public static int nthDirection(int mask, int n) {
+		for (int direction = 0; direction < DX.length; direction++) {
+			if ((mask & (1 << direction)) != 0 && n-- == 0) {
+				return direction;
+			}
+		}
+		return -1;
+	}
 }
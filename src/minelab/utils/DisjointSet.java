@@ -0,0 +1,73 @@
+package minelab.utils;
+
+/**
+ * Union-find over the integers 0..size-1 with path compression and union by
+ * rank.
+ */
+public class DisjointSet {
+	private final int[] parent;
+	private final byte[] rank;
+	private int count;
+
+	public DisjointSet(int size) {
+		parent = new int[size];
+		rank = new byte[size];
+		count = size;
+		for (int i = 0; i < size; i++) {
+			parent[i] = i;
+		}
+	}
+
+	public int find(int element) {
+		int root = element;
+		while (parent[root] != root) {
+			root = parent[root];
+		}
+
+		while (parent[element] != root) {
+			int next = parent[element];
+			parent[element] = root;
+			element = next;
+		}
+
+		return root;
+	}
+
+	/**
+	 * Merges the sets of a and b. Returns false if they were already joined.
+	 */
+	public boolean union(int a, int b) {
+		int rootA = find(a);
+		int rootB = find(b);
+		if (rootA == rootB) {
+			return false;
+		}
+
+		if (rank[rootA] < rank[rootB]) {
+			parent[rootA] = rootB;
+		} else if (rank[rootA] > rank[rootB]) {
+			parent[rootB] = rootA;
+		} else {
+			parent[rootB] = rootA;
+			rank[rootA]++;
+		}
+
+		count--;
+		return true;
+	}
+
+	public boolean connected(int a, int b) {
+		return find(a) == find(b);
+	}
+
+	/**
+	 * Number of disjoint sets left.
+	 */
+	public int count() {
+		return count;
+	}
+
+	public int size() {
+		return parent.length;
+	}
+}
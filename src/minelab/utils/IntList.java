@@ -0,0 +1,61 @@
+package minelab.utils;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints, usable as a stack.
+ */
+public class IntList {
+	private int[] values;
+	private int size;
+
+	public IntList() {
+		this(16);
+	}
+
+	public IntList(int capacity) {
+		values = new int[Math.max(capacity, 1)];
+	}
+
+	public void add(int value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+
+	public int get(int index) {
+		return values[index];
+	}
+
+	public void set(int index, int value) {
+		values[index] = value;
+	}
+
+	public int last() {
+		return values[size - 1];
+	}
+
+	public int removeLast() {
+		return values[--size];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Drops the values from size on.
+	 */
+	public void truncate(int size) {
+		this.size = Math.min(this.size, size);
+	}
+
+	public void clear() {
+		size = 0;
+	}
+}
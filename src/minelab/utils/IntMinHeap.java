@@ -0,0 +1,62 @@
+package minelab.utils;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of primitive ints.
+ */
+public class IntMinHeap {
+	private int[] heap;
+	private int size;
+
+	public IntMinHeap(int capacity) {
+		heap = new int[Math.max(capacity, 1)];
+	}
+
+	public void push(int value) {
+		if (size == heap.length) {
+			heap = Arrays.copyOf(heap, size * 2);
+		}
+
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heap[parent] <= value) {
+				break;
+			}
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = value;
+	}
+
+	public int pop() {
+		int top = heap[0];
+		int value = heap[--size];
+
+		int i = 0;
+		int half = size >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && heap[child + 1] < heap[child]) {
+				child++;
+			}
+			if (value <= heap[child]) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = value;
+
+		return top;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+}
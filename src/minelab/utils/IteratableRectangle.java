@@ -1,9 +1,6 @@
 package minelab.utils;
 
-import java.awt.Point;
 import java.awt.Rectangle;
-import java.util.ArrayList;
-import java.util.List;
 
 public class IteratableRectangle extends Rectangle {
 	private static final long serialVersionUID = -5722998564879273876L;
@@ -25,17 +22,45 @@ public class IteratableRectangle extends Rectangle {
 		return this;
 	}
 
-	public List<Point> getPoints() {
-		List<Point> points = new ArrayList<Point>();
-		for (int px=x; px<width+x; px++) {
-			for (int py=y; py<height+y; py++) {
-				points.add(new Point(px, py));
+	/**
+	 * Visits every tile, row by row, without allocating.
+	 */
+	public void forEach(TileVisitor visitor) {
+		for (int py=y; py<height+y; py++) {
+			for (int px=x; px<width+x; px++) {
+				visitor.visit(px, py);
 			}
 		}
+	}
+	
+	/**
+	 * Visits every row as a single span.
+	 */
+	public void forEachRow(RowVisitor visitor) {
+		if (width <= 0) {
+			return;
+		}
 		
-		return points;
+		for (int py=y; py<height+y; py++) {
+			visitor.visit(py, x, x + width);
+		}
 	}
 	
+	/**
+	 * Tests tiles row by row and stops at the first match.
+	 */
+	public boolean anyMatch(TilePredicate predicate) {
+		for (int py=y; py<height+y; py++) {
+			for (int px=x; px<width+x; px++) {
+				if (predicate.test(px, py)) {
+					return true;
+				}
+			}
+		}
+		
+		return false;
+	}
+
 	public IteratableRectangle intersection(IteratableRectangle ir) {
 		return new IteratableRectangle(super.intersection(ir));
 	}
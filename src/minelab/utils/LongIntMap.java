@@ -0,0 +1,124 @@
+package minelab.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to int values, without boxing.
+ * Positions are packed into keys with {@link #pack(int, int)}, so looking
+ * up the neighbours of a tile only probes their own buckets.
+ */
+public class LongIntMap {
+	public static final int MISSING = -1;
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+
+	public LongIntMap() {
+		this(16);
+	}
+
+	public LongIntMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(expectedSize * 2 - 1, 2)) << 1;
+		allocate(capacity);
+	}
+
+	public static long pack(int x, int y) {
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		mask = capacity - 1;
+	}
+
+	private int slot(long key) {
+		long hash = key * 0x9e3779b97f4a7c15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	/**
+	 * The value of the key, or {@link #MISSING}.
+	 */
+	public int get(long key) {
+		for (int i = slot(key); keys[i] != EMPTY; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return values[i];
+			}
+		}
+		return MISSING;
+	}
+
+	/**
+	 * Values must not be {@link #MISSING}, and keys not Long.MIN_VALUE.
+	 */
+	public void put(long key, int value) {
+		int i = slot(key);
+		while (keys[i] != EMPTY) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+
+		keys[i] = key;
+		values[i] = value;
+		if (++size * 2 > keys.length) {
+			rehash();
+		}
+	}
+
+	/**
+	 * Removes the key and returns its value, or {@link #MISSING}.
+	 */
+	public int remove(long key) {
+		int i = slot(key);
+		while (keys[i] != key) {
+			if (keys[i] == EMPTY) {
+				return MISSING;
+			}
+			i = (i + 1) & mask;
+		}
+
+		int value = values[i];
+		size--;
+		// Shift back the entries after the hole that would no longer be
+		// reachable from their own slot.
+		int hole = i;
+		for (i = (i + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+			int home = slot(keys[i]);
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				keys[hole] = keys[i];
+				values[hole] = values[i];
+				hole = i;
+			}
+		}
+		keys[hole] = EMPTY;
+		return value;
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(keys.length * 2);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+}
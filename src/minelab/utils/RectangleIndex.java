@@ -0,0 +1,155 @@
+package minelab.utils;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coarse grid of buckets over an area. Each rectangle is filed under every
+ * bucket it overlaps, so an overlap test only looks at the rectangles near
+ * the one being tested instead of all of them.
+ */
+public class RectangleIndex {
+	private final int cellSize;
+	private final int originX;
+	private final int originY;
+	private final int columns;
+	private final int rows;
+	private final List<List<Rectangle>> buckets;
+
+	public RectangleIndex(Rectangle area, int cellSize) {
+		this.cellSize = cellSize;
+		this.originX = area.x;
+		this.originY = area.y;
+		this.columns = Math.max(1, (area.width + cellSize - 1) / cellSize);
+		this.rows = Math.max(1, (area.height + cellSize - 1) / cellSize);
+
+		buckets = new ArrayList<List<Rectangle>>(columns * rows);
+		for (int i = 0; i < columns * rows; i++) {
+			buckets.add(null);
+		}
+	}
+
+	public void add(Rectangle rectangle) {
+		int minColumn = column(rectangle.x);
+		int maxColumn = column(rectangle.x + rectangle.width - 1);
+		int minRow = row(rectangle.y);
+		int maxRow = row(rectangle.y + rectangle.height - 1);
+
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int column = minColumn; column <= maxColumn; column++) {
+				int i = row * columns + column;
+				List<Rectangle> bucket = buckets.get(i);
+				if (bucket == null) {
+					bucket = new ArrayList<Rectangle>(2);
+					buckets.set(i, bucket);
+				}
+				bucket.add(rectangle);
+			}
+		}
+	}
+
+	public void remove(Rectangle rectangle) {
+		int minColumn = column(rectangle.x);
+		int maxColumn = column(rectangle.x + rectangle.width - 1);
+		int minRow = row(rectangle.y);
+		int maxRow = row(rectangle.y + rectangle.height - 1);
+
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int column = minColumn; column <= maxColumn; column++) {
+				List<Rectangle> bucket = buckets.get(row * columns + column);
+				if (bucket != null) {
+					bucket.remove(rectangle);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Whether the rectangle intersects any indexed rectangle, with the same
+	 * meaning as {@link Rectangle#intersects(Rectangle)}.
+	 */
+	public boolean intersectsAny(Rectangle rectangle) {
+		if (rectangle.isEmpty()) {
+			return false;
+		}
+
+		int minColumn = column(rectangle.x);
+		int maxColumn = column(rectangle.x + rectangle.width - 1);
+		int minRow = row(rectangle.y);
+		int maxRow = row(rectangle.y + rectangle.height - 1);
+
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int column = minColumn; column <= maxColumn; column++) {
+				List<Rectangle> bucket = buckets.get(row * columns + column);
+				if (bucket == null) {
+					continue;
+				}
+				for (int i = 0; i < bucket.size(); i++) {
+					if (bucket.get(i).intersects(rectangle)) {
+						return true;
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * The indexed rectangles intersecting the given one, each listed once.
+	 */
+	public List<Rectangle> findAll(Rectangle rectangle) {
+		List<Rectangle> found = new ArrayList<Rectangle>();
+		if (rectangle.isEmpty()) {
+			return found;
+		}
+
+		int minColumn = column(rectangle.x);
+		int maxColumn = column(rectangle.x + rectangle.width - 1);
+		int minRow = row(rectangle.y);
+		int maxRow = row(rectangle.y + rectangle.height - 1);
+
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int column = minColumn; column <= maxColumn; column++) {
+				List<Rectangle> bucket = buckets.get(row * columns + column);
+				if (bucket == null) {
+					continue;
+				}
+				for (int i = 0; i < bucket.size(); i++) {
+					Rectangle other = bucket.get(i);
+					// only the bucket holding the top left of the overlap lists it
+					if (other.intersects(rectangle) && column(Math.max(other.x, rectangle.x)) == column
+						&& row(Math.max(other.y, rectangle.y)) == row) {
+						found.add(other);
+					}
+				}
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * An indexed rectangle containing the point, null if there is none.
+	 */
+	public Rectangle find(int x, int y) {
+		List<Rectangle> bucket = buckets.get(row(y) * columns + column(x));
+		if (bucket != null) {
+			for (int i = 0; i < bucket.size(); i++) {
+				if (bucket.get(i).contains(x, y)) {
+					return bucket.get(i);
+				}
+			}
+		}
+		return null;
+	}
+
+	private int column(int x) {
+		return Math.min(columns - 1, Math.max(0, Math.floorDiv(x - originX, cellSize)));
+	}
+
+	private int row(int y) {
+		return Math.min(rows - 1, Math.max(0, Math.floorDiv(y - originY, cellSize)));
+	}
+}
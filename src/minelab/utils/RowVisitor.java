@@ -0,0 +1,8 @@
+package minelab.utils;
+
+public interface RowVisitor {
+	/**
+	 * Visits the tiles fromX (inclusive) to toX (exclusive) of row y.
+	 */
+	public void visit(int y, int fromX, int toX);
+}
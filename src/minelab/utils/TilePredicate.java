@@ -0,0 +1,5 @@
+package minelab.utils;
+
+public interface TilePredicate {
+	public boolean test(int x, int y);
+}
@@ -0,0 +1,5 @@
+package minelab.utils;
+
+public interface TileVisitor {
+	public void visit(int x, int y);
+}
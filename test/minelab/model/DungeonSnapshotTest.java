@@ -0,0 +1,89 @@
+package minelab.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+public class DungeonSnapshotTest {
+
+	@Test
+	public void roundTrip() throws IOException {
+		BasicDungeon dungeon = new BasicDungeon(41, 31);
+		dungeon.setSeed(1);
+		dungeon.generate();
+
+		File file = createTempFile();
+		DungeonSnapshot.save(dungeon, 1, file);
+		MappedDungeon mapped = DungeonSnapshot.map(file);
+
+		assertEquals(41, mapped.getWidth());
+		assertEquals(31, mapped.getHeight());
+		assertEquals(1, mapped.getSeed());
+		assertEquals("BasicDungeon", mapped.getType());
+		assertEquals(dungeon.getRooms(), mapped.getRooms());
+		for (int y = 0; y < 31; y++) {
+			for (int x = 0; x < 41; x++) {
+				assertEquals(dungeon.getTile(x, y), mapped.getTile(x, y));
+				assertEquals(dungeon.getGrid().getRegion(x, y), mapped.getRegion(x, y));
+			}
+		}
+		assertTrue(!new File(file.getPath() + ".partial").exists());
+	}
+
+	@Test
+	public void mapsVersion1() throws IOException {
+		File file = createTempFile();
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+			out.writeInt(DungeonSnapshot.MAGIC);
+			out.writeShort(1);
+			out.writeInt(3);
+			out.writeInt(2);
+			out.writeLong(42);
+			out.writeUTF("BasicDungeon");
+			out.write(new byte[] { 0, 1, 0, 1, 2, 1 });
+		}
+
+		MappedDungeon mapped = DungeonSnapshot.map(file);
+		assertEquals(3, mapped.getWidth());
+		assertEquals(2, mapped.getHeight());
+		assertEquals(42, mapped.getSeed());
+		assertEquals("BasicDungeon", mapped.getType());
+		assertTrue(mapped.getRooms().isEmpty());
+		assertEquals(1, mapped.getTile(1, 0));
+		assertEquals(2, mapped.getTile(1, 1));
+		assertEquals(TileGrid.NO_REGION, mapped.getRegion(1, 1));
+	}
+
+	@Test
+	public void rejectsTruncated() throws IOException {
+		BasicDungeon dungeon = new BasicDungeon(21, 21);
+		dungeon.setSeed(1);
+		dungeon.generate();
+
+		File file = createTempFile();
+		DungeonSnapshot.save(dungeon, 1, file);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 1);
+		}
+		try {
+			DungeonSnapshot.map(file);
+			fail("mapped a truncated snapshot");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static File createTempFile() throws IOException {
+		File file = File.createTempFile("minelab", ".dungeon");
+		file.deleteOnExit();
+		return file;
+	}
+}
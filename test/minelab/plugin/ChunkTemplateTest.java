@@ -0,0 +1,88 @@
+package minelab.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import org.bukkit.generator.ChunkGenerator.ChunkData;
+import org.bukkit.material.MaterialData;
+import org.junit.Test;
+
+import minelab.model.BasicDungeon;
+import minelab.model.DungeonStack;
+import minelab.model.DungeonType;
+
+public class ChunkTemplateTest {
+
+	@Test
+	public void boxesReproduceFloor() {
+		for (long seed = 0; seed < 8; seed++) {
+			assertBoxesReproduceBlocks(ChunkTemplate.compileFloor(seed, 1));
+			assertBoxesReproduceBlocks(ChunkTemplate.compileFloor(seed, 3));
+		}
+	}
+
+	@Test
+	public void boxesReproduceDungeon() {
+		BasicDungeon dungeon = new BasicDungeon(41, 41);
+		dungeon.setSeed(1);
+		dungeon.generate();
+		// chunks the dungeon covers in part, fully and not at all
+		for (int cx = -1; cx <= 3; cx++) {
+			for (int cz = -1; cz <= 3; cz++) {
+				assertBoxesReproduceBlocks(ChunkTemplate.compile(dungeon, cx, cz, cx == 0 && cz == 0));
+			}
+		}
+	}
+
+	@Test
+	public void boxesReproduceStack() {
+		DungeonStack stack = new DungeonStack(DungeonType.BASIC, 31, 31, 3);
+		stack.setSeed(1);
+		stack.generate();
+		for (int cx = 0; cx <= 1; cx++) {
+			for (int cz = 0; cz <= 1; cz++) {
+				assertBoxesReproduceBlocks(ChunkTemplate.compile(stack, cx, cz, false));
+			}
+		}
+	}
+
+	/**
+	 * Applies the template and checks every block was set exactly once, to
+	 * the block baked in.
+	 */
+	private static void assertBoxesReproduceBlocks(ChunkTemplate template) {
+		int width = ChunkTemplate.CHUNK_WIDTH;
+		byte[] applied = new byte[template.getHeight() * width * width];
+		Arrays.fill(applied, (byte) -1);
+
+		// proxied, since the chunk data interface differs between server versions
+		ChunkData chunk = (ChunkData) Proxy.newProxyInstance(ChunkData.class.getClassLoader(), new Class<?>[] { ChunkData.class },
+			(proxy, method, args) -> {
+				assertEquals("setRegion", method.getName());
+				int palette = Arrays.asList(ChunkTemplate.PALETTE).indexOf((MaterialData) args[6]);
+				assertTrue(palette >= 0);
+				for (int y = (Integer) args[1]; y < (Integer) args[4]; y++) {
+					for (int z = (Integer) args[2]; z < (Integer) args[5]; z++) {
+						for (int x = (Integer) args[0]; x < (Integer) args[3]; x++) {
+							int i = (y * width + z) * width + x;
+							assertEquals("overlapping boxes at " + x + ", " + y + ", " + z, -1, applied[i]);
+							applied[i] = (byte) palette;
+						}
+					}
+				}
+				return null;
+			});
+		template.apply(chunk);
+
+		for (int y = 0; y < template.getHeight(); y++) {
+			for (int z = 0; z < width; z++) {
+				for (int x = 0; x < width; x++) {
+					assertEquals("block at " + x + ", " + y + ", " + z, template.getBlock(x, y, z), applied[(y * width + z) * width + x]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package minelab.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongIntMapTest {
+
+	@Test
+	public void matchesHashMap() {
+		Random random = new Random(1);
+		LongIntMap map = new LongIntMap(4);
+		Map<Long, Integer> expected = new HashMap<Long, Integer>();
+
+		// few distinct keys, so puts overwrite and removes hit probe chains
+		for (int i = 0; i < 100000; i++) {
+			long key = LongIntMap.pack(random.nextInt(64) - 32, random.nextInt(64) - 32);
+			if (random.nextInt(3) == 0) {
+				Integer value = expected.remove(key);
+				assertEquals(value != null ? value.intValue() : LongIntMap.MISSING, map.remove(key));
+			} else {
+				int value = random.nextInt(1000);
+				expected.put(key, value);
+				map.put(key, value);
+			}
+			assertEquals(expected.size(), map.size());
+		}
+
+		for (int x = -32; x < 32; x++) {
+			for (int y = -32; y < 32; y++) {
+				long key = LongIntMap.pack(x, y);
+				Integer value = expected.get(key);
+				assertEquals(value != null ? value.intValue() : LongIntMap.MISSING, map.get(key));
+			}
+		}
+	}
+
+	@Test
+	public void keepsEntriesOverRehash() {
+		LongIntMap map = new LongIntMap();
+		for (int i = 0; i < 10000; i++) {
+			map.put(LongIntMap.pack(i, -i), i);
+		}
+		assertEquals(10000, map.size());
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(i, map.get(LongIntMap.pack(i, -i)));
+		}
+
+		for (int i = 0; i < 10000; i += 2) {
+			assertEquals(i, map.remove(LongIntMap.pack(i, -i)));
+		}
+		assertEquals(5000, map.size());
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(i % 2 == 0 ? LongIntMap.MISSING : i, map.get(LongIntMap.pack(i, -i)));
+		}
+	}
+}